@@ -0,0 +1,74 @@
+package com.dailydumbbell.plugin.camera.benchmark;
+
+import com.dailydumbbell.plugin.camera.FrameEncoder;
+import com.dailydumbbell.plugin.camera.FrameOutputStream;
+import com.dailydumbbell.plugin.camera.FrameSerializer;
+import com.dailydumbbell.plugin.camera.FrameTransformer;
+import com.dailydumbbell.plugin.camera.GrayFrameEncoder;
+import com.dailydumbbell.plugin.camera.Rgb565FrameEncoder;
+import com.dailydumbbell.plugin.camera.RgbaFrameEncoder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding a full size portrait frame and framing it as a base64 data URI, as delivered over the bridge.
+ * JPEG and WebP go through the platform codecs and can only be measured on a device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EncodeBenchmark {
+    @Param({ "352x288", "640x480", "1280x720", "1920x1080" })
+    public String resolution;
+
+    @Param({ "rgba", "rgb565", "gray" })
+    public String format;
+
+    private byte[] mFrame;
+    private FrameEncoder mEncoder;
+    private FrameOutputStream mEncoded;
+    private final FrameTransformer mTransformer = new FrameTransformer();
+    private final FrameSerializer mSerializer = new FrameSerializer();
+
+    @Setup
+    public void setUp() {
+        int[] size = FrameCorpus.size(resolution);
+        mFrame = FrameCorpus.nv21(size[0], size[1]);
+        mTransformer.configure(size[0], size[1], size[0], size[1], 90, false);
+        switch (format) {
+            case "rgba":
+                mEncoder = new RgbaFrameEncoder();
+                break;
+            case "rgb565":
+                mEncoder = new Rgb565FrameEncoder();
+                break;
+            default:
+                mEncoder = new GrayFrameEncoder();
+                break;
+        }
+        mEncoded = mEncoder.encode(mTransformer, mFrame);
+    }
+
+    @Benchmark
+    public FrameOutputStream encode() {
+        return mEncoder.encode(mTransformer, mFrame);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return mSerializer.toDataUri(mEncoder.getMimeType(), mEncoded.getBuffer(), 0, mEncoded.size());
+    }
+
+    @Benchmark
+    public String encodeAndSerialize() {
+        FrameOutputStream encoded = mEncoder.encode(mTransformer, mFrame);
+        return mSerializer.toDataUri(mEncoder.getMimeType(), encoded.getBuffer(), 0, encoded.size());
+    }
+}
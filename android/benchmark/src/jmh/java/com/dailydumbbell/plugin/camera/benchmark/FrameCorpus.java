@@ -0,0 +1,33 @@
+package com.dailydumbbell.plugin.camera.benchmark;
+
+import com.dailydumbbell.plugin.camera.SyntheticFrameSource;
+import java.util.Random;
+
+/**
+ * Fixed NV21 input frames, identical from run to run so scores stay comparable.
+ * Frames are the synthetic gradient with seeded sensor like noise on top, which keeps
+ * lossless paths from seeing unrealistically uniform data.
+ */
+final class FrameCorpus {
+    static final String[] RESOLUTIONS = { "352x288", "640x480", "1280x720", "1920x1080" };
+
+    private FrameCorpus() {}
+
+    /**
+     * @param resolution {@code <width>x<height>}
+     */
+    static int[] size(String resolution) {
+        int separator = resolution.indexOf('x');
+        return new int[] { Integer.parseInt(resolution.substring(0, separator)), Integer.parseInt(resolution.substring(separator + 1)) };
+    }
+
+    static byte[] nv21(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        SyntheticFrameSource.render(frame, width, height, 0);
+        Random random = new Random(width * 31L + height);
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) Math.max(0, Math.min(255, (frame[i] & 0xff) + random.nextInt(17) - 8));
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,61 @@
+package com.dailydumbbell.plugin.camera.benchmark;
+
+import com.dailydumbbell.plugin.camera.PreviewGeometry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Preview negotiation helpers, run once per camera start and once per frame for the aspect ratio.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GeometryBenchmark {
+    // preview sizes and fps ranges as reported by a typical Camera1 HAL
+    private static final int[][] PREVIEW_SIZES = {
+        { 1920, 1080 }, { 1440, 1080 }, { 1280, 960 }, { 1280, 720 }, { 1088, 1088 }, { 1024, 768 }, { 960, 720 },
+        { 960, 540 }, { 864, 480 }, { 800, 600 }, { 800, 480 }, { 720, 720 }, { 720, 480 }, { 640, 480 },
+        { 640, 360 }, { 480, 360 }, { 480, 320 }, { 352, 288 }, { 320, 240 }, { 176, 144 },
+    };
+    private static final int[][] FPS_RANGES = { { 15000, 15000 }, { 8000, 30000 }, { 15000, 30000 }, { 24000, 24000 }, { 30000, 30000 } };
+
+    private final List<int[]> mPreviewSizes = new ArrayList<>();
+    private final List<int[]> mFpsRanges = new ArrayList<>();
+    private int mTarget = 0;
+
+    @Setup
+    public void setUp() {
+        for (int[] size : PREVIEW_SIZES) {
+            mPreviewSizes.add(size);
+        }
+        for (int[] range : FPS_RANGES) {
+            mFpsRanges.add(range);
+        }
+    }
+
+    @Benchmark
+    public int[] calculateAspectRatio() {
+        // alternates landscape and portrait targets so both branches are taken
+        int[] size = PREVIEW_SIZES[mTarget++ % PREVIEW_SIZES.length];
+        return PreviewGeometry.calculateAspectRatio(size[0], size[1], 720, 1280);
+    }
+
+    @Benchmark
+    public int getOptimalPreviewSize() {
+        int[] size = PREVIEW_SIZES[mTarget++ % PREVIEW_SIZES.length];
+        return PreviewGeometry.getOptimalPreviewSize(mPreviewSizes, size[0], size[1]);
+    }
+
+    @Benchmark
+    public int[] getOptimalFrameRate() {
+        return PreviewGeometry.getOptimalFrameRate(mFpsRanges, 15 + (mTarget++ & 15));
+    }
+}
@@ -0,0 +1,53 @@
+package com.dailydumbbell.plugin.camera.benchmark;
+
+import com.dailydumbbell.plugin.camera.FrameSerializer;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Framing an encoded frame as a base64 data URI, the reused buffer of {@link FrameSerializer} against the
+ * line wrapped encoding and concatenation it replaced. Run with the gc profiler and compare
+ * {@code gc.alloc.rate.norm}, the bytes allocated per frame:
+ * {@code ./gradlew :benchmark:jmh -PjmhIncludes=SerializeBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializeBenchmark {
+    private static final String MIME_TYPE = "image/jpeg";
+
+    // sizes of JPEG frames from the default canvas up to full HD
+    @Param({ "30720", "153600", "614400" })
+    public int frameSize;
+
+    // android.util.Base64.DEFAULT wraps lines at 76 chars
+    private final Base64.Encoder mWrappingEncoder = Base64.getMimeEncoder(76, new byte[] { '\n' });
+    private final FrameSerializer mSerializer = new FrameSerializer();
+    private byte[] mFrame;
+
+    @Setup
+    public void setUp() {
+        // random payloads do not compress, like encoded frames
+        mFrame = new byte[frameSize];
+        new Random(frameSize).nextBytes(mFrame);
+    }
+
+    @Benchmark
+    public String concatenateWrapped() {
+        return "data:" + MIME_TYPE + ";base64," + mWrappingEncoder.encodeToString(mFrame);
+    }
+
+    @Benchmark
+    public String frameSerializer() {
+        return mSerializer.toDataUri(MIME_TYPE, mFrame, 0, mFrame.length);
+    }
+}
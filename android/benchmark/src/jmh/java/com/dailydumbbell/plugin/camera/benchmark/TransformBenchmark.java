@@ -0,0 +1,105 @@
+package com.dailydumbbell.plugin.camera.benchmark;
+
+import com.dailydumbbell.plugin.camera.FrameStripes;
+import com.dailydumbbell.plugin.camera.FrameTransformer;
+import com.dailydumbbell.plugin.camera.LumaStats;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Scaling combined with rotation and mirroring, into every output layout.
+ * Half size averages 2x2 blocks, two fifths resamples at a fractional ratio.
+ * With several threads, frames large enough are converted in bands of rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransformBenchmark {
+    @Param({ "352x288", "640x480", "1280x720", "1920x1080" })
+    public String resolution;
+
+    @Param({ "box", "resample" })
+    public String scaling;
+
+    @Param({ "0", "90" })
+    public int rotation;
+
+    @Param({ "false", "true" })
+    public boolean mirror;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private byte[] mFrame;
+    private byte[] mLuma;
+    private int mWidth;
+    private int mHeight;
+    private int mScaledWidth;
+    private int mScaledHeight;
+    private final FrameTransformer mTransformer = new FrameTransformer();
+    private final LumaStats mLumaStats = new LumaStats();
+    private FrameStripes mStripes;
+
+    @Setup
+    public void setUp() {
+        int[] size = FrameCorpus.size(resolution);
+        mWidth = size[0];
+        mHeight = size[1];
+        mFrame = FrameCorpus.nv21(mWidth, mHeight);
+        boolean box = "box".equals(scaling);
+        mScaledWidth = box ? mWidth / 2 : mWidth * 2 / 5;
+        mScaledHeight = box ? mHeight / 2 : mHeight * 2 / 5;
+        mTransformer.configure(mWidth, mHeight, mScaledWidth, mScaledHeight, rotation, mirror);
+        mStripes = new FrameStripes(threads);
+        mTransformer.setStripes(mStripes);
+        mLuma = new byte[mTransformer.getOutputWidth() * mTransformer.getOutputHeight()];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mStripes.shutdown();
+    }
+
+    @Benchmark
+    public byte[] toNv21() {
+        return mTransformer.toNv21(mFrame);
+    }
+
+    @Benchmark
+    public byte[] toI420() {
+        return mTransformer.toI420(mFrame);
+    }
+
+    @Benchmark
+    public int[] toArgb() {
+        return mTransformer.toArgb(mFrame);
+    }
+
+    @Benchmark
+    public byte[] toLuma() {
+        mTransformer.toLuma(mFrame, mLuma);
+        return mLuma;
+    }
+
+    @Benchmark
+    public LumaStats toLumaWithStats() {
+        mTransformer.toLuma(mFrame, mLuma, mLumaStats);
+        return mLumaStats;
+    }
+
+    @Benchmark
+    public FrameTransformer configure() {
+        // lookup tables are rebuilt whenever the preview size or orientation changes
+        FrameTransformer transformer = new FrameTransformer();
+        transformer.configure(mWidth, mHeight, mScaledWidth, mScaledHeight, rotation, mirror);
+        return transformer;
+    }
+}
@@ -0,0 +1,121 @@
+package com.dailydumbbell.plugin.camera;
+
+import android.hardware.Camera;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a camera supports, as read once from its parameters. Never changes for a given device and OS build.
+ */
+public class CameraCapabilities {
+    public final int cameraId;
+    public final int facing;
+    public final int orientation;
+    // {width, height} pairs
+    public final List<int[]> previewSizes;
+    // {min, max} pairs, scaled by 1000
+    public final List<int[]> fpsRanges;
+    public final List<String> focusModes;
+    public final List<String> flashModes;
+
+    public CameraCapabilities(
+        int cameraId,
+        int facing,
+        int orientation,
+        List<int[]> previewSizes,
+        List<int[]> fpsRanges,
+        List<String> focusModes,
+        List<String> flashModes
+    ) {
+        this.cameraId = cameraId;
+        this.facing = facing;
+        this.orientation = orientation;
+        this.previewSizes = Collections.unmodifiableList(previewSizes);
+        this.fpsRanges = Collections.unmodifiableList(fpsRanges);
+        this.focusModes = Collections.unmodifiableList(focusModes);
+        this.flashModes = Collections.unmodifiableList(flashModes);
+    }
+
+    public static CameraCapabilities fromParameters(int cameraId, int facing, int orientation, Camera.Parameters parameters) {
+        List<int[]> previewSizes = new ArrayList<>();
+        List<Camera.Size> sizes = parameters.getSupportedPreviewSizes();
+        if (sizes != null) {
+            for (Camera.Size size : sizes) {
+                previewSizes.add(new int[] { size.width, size.height });
+            }
+        }
+        List<int[]> fpsRanges = new ArrayList<>();
+        List<int[]> ranges = parameters.getSupportedPreviewFpsRange();
+        if (ranges != null) {
+            fpsRanges.addAll(ranges);
+        }
+        return new CameraCapabilities(
+            cameraId,
+            facing,
+            orientation,
+            previewSizes,
+            fpsRanges,
+            copyOf(parameters.getSupportedFocusModes()),
+            copyOf(parameters.getSupportedFlashModes())
+        );
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", cameraId);
+        json.put("facing", facing);
+        json.put("orientation", orientation);
+        json.put("previewSizes", toJSON(previewSizes));
+        json.put("fpsRanges", toJSON(fpsRanges));
+        json.put("focusModes", new JSONArray(focusModes));
+        json.put("flashModes", new JSONArray(flashModes));
+        return json;
+    }
+
+    public static CameraCapabilities fromJSON(JSONObject json) throws JSONException {
+        return new CameraCapabilities(
+            json.getInt("id"),
+            json.getInt("facing"),
+            json.getInt("orientation"),
+            pairsFromJSON(json.getJSONArray("previewSizes")),
+            pairsFromJSON(json.getJSONArray("fpsRanges")),
+            stringsFromJSON(json.getJSONArray("focusModes")),
+            stringsFromJSON(json.getJSONArray("flashModes"))
+        );
+    }
+
+    private static List<String> copyOf(List<String> values) {
+        return values != null ? new ArrayList<>(values) : new ArrayList<String>();
+    }
+
+    private static JSONArray toJSON(List<int[]> pairs) {
+        JSONArray array = new JSONArray();
+        for (int[] pair : pairs) {
+            array.put(pair[0]);
+            array.put(pair[1]);
+        }
+        return array;
+    }
+
+    private static List<int[]> pairsFromJSON(JSONArray array) throws JSONException {
+        List<int[]> pairs = new ArrayList<>();
+        for (int i = 0; i + 1 < array.length(); i += 2) {
+            pairs.add(new int[] { array.getInt(i), array.getInt(i + 1) });
+        }
+        return pairs;
+    }
+
+    private static List<String> stringsFromJSON(JSONArray array) throws JSONException {
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            strings.add(array.getString(i));
+        }
+        return strings;
+    }
+}
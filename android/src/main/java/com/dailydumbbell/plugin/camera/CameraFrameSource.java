@@ -0,0 +1,68 @@
+package com.dailydumbbell.plugin.camera;
+
+import android.hardware.Camera;
+
+/**
+ * Preview frames of an opened {@link Camera}, delivered on the thread the camera was opened on.
+ * When a buffer pool is given frames are written into its buffers, otherwise the camera allocates every frame.
+ */
+public class CameraFrameSource implements FrameSource {
+    private final Camera mCamera;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFormat;
+    private final PreviewBufferPool mPool;
+    private FrameListener mListener = null;
+    private long mSequence = 0;
+
+    public CameraFrameSource(Camera camera, int width, int height, int format, PreviewBufferPool pool) {
+        mCamera = camera;
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mPool = pool;
+    }
+
+    @Override
+    public void start(FrameListener listener) {
+        mListener = listener;
+        if (mPool != null) {
+            mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+            mPool.attach(mCamera::addCallbackBuffer);
+        } else {
+            mCamera.setPreviewCallback(mPreviewCallback);
+        }
+    }
+
+    @Override
+    public void stop() {
+        mCamera.setPreviewCallback(null);
+        mListener = null;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    private final Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            if (mPool != null) {
+                mPool.onBufferDequeued(data);
+            }
+            RawFrame frame = new RawFrame(data, mWidth, mHeight, mFormat, mSequence++, System.currentTimeMillis(), mPool);
+            FrameListener listener = mListener;
+            if (listener != null) {
+                listener.onFrame(frame);
+            } else {
+                frame.release();
+            }
+        }
+    };
+}
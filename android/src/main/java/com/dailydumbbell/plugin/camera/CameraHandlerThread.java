@@ -7,41 +7,64 @@ import android.os.HandlerThread;
 
 import com.getcapacitor.Logger;
 
+/**
+ * Looper thread owning the camera: it is opened, configured and started here,
+ * and preview callbacks are delivered here, off the UI thread.
+ */
 public class CameraHandlerThread extends HandlerThread {
     private static final String TAG = "CameraHandler";
-    private Camera mCamera = null;
     private Handler mHandler = null;
 
+    public interface OpenCallback {
+        /**
+         * Called on the camera thread once the camera is opened.
+         */
+        void onOpened(Camera camera);
+
+        /**
+         * Called on the camera thread when the camera could not be opened.
+         */
+        void onError(RuntimeException e);
+    }
+
     CameraHandlerThread() {
         super("CameraHandlerThread");
         start();
         mHandler = new Handler(getLooper());
     }
 
-    private synchronized void cameraOpened() {
-        notify();
-    }
-
-    public Camera openCamera(final int cameraId) {
+    /**
+     * Opens the camera on this thread without blocking the caller.
+     */
+    public void openCamera(final int cameraId, final OpenCallback callback) {
         mHandler.post(new Runnable() {
             @Override
             public void run() {
+                Camera camera;
                 try {
-                    mCamera = Camera.open(cameraId);
+                    camera = Camera.open(cameraId);
                     Logger.info(TAG, "Camera [" + cameraId + "] opened.");
                 } catch (RuntimeException e) {
                     Logger.error(TAG, "Unable to open camera : " + e.getMessage(), e);
+                    callback.onError(e);
+                    return;
                 }
-                cameraOpened();
+                callback.onOpened(camera);
             }
         });
+    }
 
-        try {
-            wait();
-        } catch (InterruptedException e) {
-            Logger.warn(TAG, "Camera opening thread wait was interrupted : " + e.getMessage());
-        }
+    /**
+     * Runs camera work on this thread, after the work already queued.
+     */
+    public void post(Runnable runnable) {
+        mHandler.post(runnable);
+    }
 
-        return mCamera;
+    /**
+     * @return the handler of this thread, for system callbacks that should run along camera work.
+     */
+    public Handler getHandler() {
+        return mHandler;
     }
 }
@@ -5,10 +5,12 @@ import static android.Manifest.permission.CAMERA;
 import android.annotation.SuppressLint;
 import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
+import android.net.Uri;
 import android.util.DisplayMetrics;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.getcapacitor.FileUtils;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Logger;
 import com.getcapacitor.Plugin;
@@ -21,6 +23,8 @@ import com.getcapacitor.PermissionState;
 
 import org.json.JSONArray;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+
 @CapacitorPlugin(name = "CanvasCamera", permissions = { @Permission(strings = { CAMERA }, alias = CameraPlugin.CAMERA_PERMISSION_ALIAS) })
 public class CameraPlugin extends Plugin implements CameraPreview.CameraPreviewListener {
     private static final String TAG = "CameraPlugin";
@@ -29,15 +33,31 @@ public class CameraPlugin extends Plugin implements CameraPreview.CameraPreviewL
     private static final boolean LOGGING = true;
     private String renderCallbackId = "";
     private int defaultOrientation = -1;
+    // kept by the plugin so processors can be registered before the camera is initialized
+    private final CopyOnWriteArrayList<FrameProcessor> frameProcessors = new CopyOnWriteArrayList<>();
 
     @PluginMethod
     public void initialize(PluginCall call) {
         camera = new CameraPreview(this.getActivity());
         camera.initialize(call.getData());
         camera.setEventListener(this);
+        camera.setFrameProcessors(frameProcessors);
         call.resolve();
     }
 
+    /**
+     * Registers a processor receiving every raw frame on the frame worker, for other native code
+     * getting the plugin with {@code bridge.getPlugin("CanvasCamera").getInstance()}.
+     * Results reach JavaScript as {@code frameProcessed} events.
+     */
+    public void addFrameProcessor(FrameProcessor processor) {
+        frameProcessors.addIfAbsent(processor);
+    }
+
+    public void removeFrameProcessor(FrameProcessor processor) {
+        frameProcessors.remove(processor);
+    }
+
     @PluginMethod
     public void start(PluginCall call) {
         if (PermissionState.GRANTED.equals(getPermissionState(CAMERA_PERMISSION_ALIAS))) {
@@ -47,6 +67,19 @@ public class CameraPlugin extends Plugin implements CameraPreview.CameraPreviewL
         }
     }
 
+    @PluginMethod
+    public void prewarm(PluginCall call) {
+        if (camera == null) {
+            call.reject("Camera is not initialized");
+            return;
+        }
+        if (PermissionState.GRANTED.equals(getPermissionState(CAMERA_PERMISSION_ALIAS))) {
+            prewarmCamera(call);
+        } else {
+            requestPermissionForAlias(CAMERA_PERMISSION_ALIAS, call, "handlePrewarmPermissionResult");
+        }
+    }
+
     @SuppressLint("WrongConstant")
     @PluginMethod
     public void stop(PluginCall call) {
@@ -56,6 +89,27 @@ public class CameraPlugin extends Plugin implements CameraPreview.CameraPreviewL
         }
         releasePreviousCallback();
         camera.stop();
+        camera.stopStreaming();
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void reconfigure(PluginCall call) {
+        if (camera == null) {
+            call.reject("Camera is not initialized");
+            return;
+        }
+        camera.reconfigure(call.getData());
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void setRegionOfInterest(PluginCall call) {
+        if (camera == null) {
+            call.reject("Camera is not initialized");
+            return;
+        }
+        camera.setRegionOfInterest(call.getData());
         call.resolve();
     }
 
@@ -93,6 +147,114 @@ public class CameraPlugin extends Plugin implements CameraPreview.CameraPreviewL
         call.resolve();
     }
 
+    @PluginMethod
+    public void getLatestFrame(PluginCall call) {
+        if (camera == null || !camera.mPreviewing) {
+            call.reject("Camera is not running");
+            return;
+        }
+        if (!camera.isPullMode()) {
+            call.reject("Latest frame is only kept in pull mode");
+            return;
+        }
+
+        JSObject frame = camera.getLatestFrame(
+            call.getInt("width", 0),
+            call.getInt("height", 0),
+            call.getString("format", "jpeg"),
+            call.getInt("quality", 100)
+        );
+        if (frame != null) {
+            call.resolve(frame);
+        } else {
+            call.reject("No frame available yet");
+        }
+    }
+
+    @PluginMethod
+    public void capture(PluginCall call) {
+        if (camera == null || !camera.mPreviewing) {
+            call.reject("Camera is not running");
+            return;
+        }
+        camera.capture(
+            "still".equals(call.getString("source", "preview")),
+            call.getInt("quality", 100),
+            call.getBoolean("exifOrientation", false),
+            new CameraPreview.CaptureListener() {
+                @Override
+                public void onCaptured(JSObject result) {
+                    // path the web view loads the file from
+                    Uri uri = Uri.parse(result.getString("uri"));
+                    result.put("webPath", FileUtils.getPortablePath(getContext(), bridge.getLocalUrl(), uri));
+                    call.resolve(result);
+                }
+
+                @Override
+                public void onCaptureFailed(String message) {
+                    call.reject(message);
+                }
+            }
+        );
+    }
+
+    @PluginMethod
+    public void getCapabilities(PluginCall call) {
+        if (camera == null) {
+            call.reject("Camera is not initialized");
+            return;
+        }
+        if (PermissionState.GRANTED.equals(getPermissionState(CAMERA_PERMISSION_ALIAS))) {
+            resolveCapabilities(call);
+        } else {
+            requestPermissionForAlias(CAMERA_PERMISSION_ALIAS, call, "handleCapabilitiesPermissionResult");
+        }
+    }
+
+    @PluginMethod
+    public void getStats(PluginCall call) {
+        if (camera == null) {
+            call.reject("Camera is not initialized");
+            return;
+        }
+        call.resolve(camera.getStats());
+    }
+
+    @PluginMethod
+    public void resetStats(PluginCall call) {
+        if (camera == null) {
+            call.reject("Camera is not initialized");
+            return;
+        }
+        camera.resetStats();
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void requestKeyframe(PluginCall call) {
+        if (camera == null) {
+            call.reject("Camera is not initialized");
+            return;
+        }
+        camera.requestKeyframe();
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void ackFrame(PluginCall call) {
+        if (camera == null) {
+            call.reject("Camera is not initialized");
+            return;
+        }
+        Long sequence = call.getLong("sequence");
+        if (sequence == null) {
+            call.reject("Missing sequence");
+            return;
+        }
+        camera.ackFrame(sequence);
+        call.resolve();
+    }
+
     @PluginMethod(returnType = PluginMethod.RETURN_CALLBACK)
     public void onRenderFrame(PluginCall call) {
         releasePreviousCallback();
@@ -110,6 +272,48 @@ public class CameraPlugin extends Plugin implements CameraPreview.CameraPreviewL
         }
     }
 
+    @PermissionCallback
+    private void handlePrewarmPermissionResult(PluginCall call) {
+        if (PermissionState.GRANTED.equals(getPermissionState(CAMERA_PERMISSION_ALIAS))) {
+            prewarmCamera(call);
+        } else {
+            debug("User denied camera permission: " + getPermissionState(CAMERA_PERMISSION_ALIAS).toString());
+            call.reject("Permission failed: user denied access to camera.");
+        }
+    }
+
+    @PermissionCallback
+    private void handleCapabilitiesPermissionResult(PluginCall call) {
+        if (PermissionState.GRANTED.equals(getPermissionState(CAMERA_PERMISSION_ALIAS))) {
+            resolveCapabilities(call);
+        } else {
+            debug("User denied camera permission: " + getPermissionState(CAMERA_PERMISSION_ALIAS).toString());
+            call.reject("Permission failed: user denied access to camera.");
+        }
+    }
+
+    private void resolveCapabilities(PluginCall call) {
+        camera.getCapabilities(new CameraPreview.CapabilitiesListener() {
+            @Override
+            public void onCapabilities(JSObject capabilities) {
+                call.resolve(capabilities);
+            }
+        });
+    }
+
+    private void prewarmCamera(PluginCall call) {
+        camera.prewarm(new CameraPreview.CameraOpenListener() {
+            @Override
+            public void onCameraOpened(boolean opened) {
+                if (opened) {
+                    call.resolve();
+                } else {
+                    call.reject("Could not open camera!");
+                }
+            }
+        });
+    }
+
     private void releasePreviousCallback() {
         if (renderCallbackId != "") {
             try {
@@ -119,12 +323,19 @@ public class CameraPlugin extends Plugin implements CameraPreview.CameraPreviewL
     }
 
     @Override
-    public void onFrameUpdate(JSObject frame) {
+    public boolean onFrameUpdate(JSObject frame) {
         if (camera.mPreviewing && renderCallbackId != "") {
             try {
                 bridge.getSavedCall(renderCallbackId).resolve(frame);
+                return true;
             } catch (Exception e) {}
         }
+        return false;
+    }
+
+    @Override
+    public void onFrameProcessed(JSObject result) {
+        notifyListeners("frameProcessed", result);
     }
 
 
@@ -143,7 +354,12 @@ public class CameraPlugin extends Plugin implements CameraPreview.CameraPreviewL
                     boolean hasStarted = camera.start();
 
                     if (hasStarted) {
-                        call.resolve();
+                        JSObject streamInfo = camera.getStreamInfo();
+                        if (streamInfo != null) {
+                            call.resolve(streamInfo);
+                        } else {
+                            call.resolve();
+                        }
                     } else {
                         call.reject("Could not start camera!");
                     }
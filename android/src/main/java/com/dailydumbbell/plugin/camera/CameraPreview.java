@@ -7,9 +7,13 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
+import android.graphics.YuvImage;
 import android.hardware.Camera;
-import android.util.Base64;
+import android.hardware.display.DisplayManager;
+import android.net.Uri;
 import android.util.Log;
 import android.view.TextureView;
 import android.view.View;
@@ -23,11 +27,50 @@ import com.getcapacitor.Logger;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class CameraPreview {
     private static final String TAG = "CameraPreview";
 
     public interface CameraPreviewListener {
-        void onFrameUpdate(JSObject frame);
+        /**
+         * @return false when the frame could not be delivered.
+         */
+        boolean onFrameUpdate(JSObject frame);
+
+        /**
+         * Called with every result of a {@link FrameProcessor}, from the thread that produced it.
+         */
+        void onFrameProcessed(JSObject result);
+    }
+
+    public interface CaptureListener {
+        /**
+         * @param result path, uri and size of the written picture
+         */
+        void onCaptured(JSObject result);
+
+        void onCaptureFailed(String message);
+    }
+
+    public interface CameraOpenListener {
+        /**
+         * @param opened false when no camera could be opened
+         */
+        void onCameraOpened(boolean opened);
     }
 
     private CameraPreviewListener eventListener;
@@ -39,6 +82,33 @@ public class CameraPreview {
     protected final String K_CAPTURE_KEY = "capture";
     protected final String K_FLASH_MODE_KEY = "flashMode";
     protected final String K_LENS_ORIENTATION_KEY = "cameraFacing";
+    protected final String K_BUFFER_POOL_SIZE_KEY = "bufferPoolSize";
+    protected final String K_FRAME_QUEUE_SIZE_KEY = "frameQueueSize";
+    protected final String K_DROP_POLICY_KEY = "dropPolicy";
+    protected final String K_FORMAT_KEY = "format";
+    protected final String K_QUALITY_KEY = "quality";
+    protected final String K_TRANSPORT_KEY = "transport";
+    protected final String K_STREAM_PORT_KEY = "streamPort";
+    protected final String K_MAX_FRAMES_IN_FLIGHT_KEY = "maxFramesInFlight";
+    protected final String K_MODE_KEY = "mode";
+    protected final String K_ROI_KEY = "roi";
+    protected final String K_ANALYSIS_KEY = "analysis";
+    protected final String K_OUTPUTS_KEY = "outputs";
+    protected final String K_RATE_DIVISOR_KEY = "rateDivisor";
+    protected final String K_MOTION_GATE_KEY = "motionGate";
+    protected final String K_THRESHOLD_KEY = "threshold";
+    protected final String K_KEEP_ALIVE_KEY = "keepAlive";
+    protected final String K_DELTA_KEY = "delta";
+    protected final String K_TILE_SIZE_KEY = "tileSize";
+    protected final String K_KEYFRAME_INTERVAL_KEY = "keyframeInterval";
+    protected final String K_PARALLELISM_KEY = "parallelism";
+    protected final String K_DELIVERY_QUEUE_SIZE_KEY = "deliveryQueueSize";
+    protected final String K_X_KEY = "x";
+    protected final String K_Y_KEY = "y";
+
+    private static final long FRAME_ACK_TIMEOUT_MS = 2000;
+    // a capture not done by then is failed, e.g. when no frame is pushed anymore
+    private static final long CAPTURE_TIMEOUT_MS = 10000;
 
     private static final int SEC_START_CAPTURE = 0;
     private static final int SEC_STOP_CAPTURE = 1;
@@ -50,26 +120,96 @@ public class CameraPreview {
     protected int mHeight;
     private int mOrientation;
     protected int mCameraFacing;
-    protected String mFlashMode;
+    // set from the UI thread, read by the camera thread when parameters are applied
+    protected volatile String mFlashMode;
     protected int mCanvasHeight;
     protected int mCanvasWidth;
     protected int mCaptureHeight;
     protected int mCaptureWidth;
+    protected int mBufferPoolSize;
+    protected int mFrameQueueSize;
+    protected FrameWorker.DropPolicy mDropPolicy;
+    protected String mFormat;
+    protected int mQuality;
+    protected String mTransport;
+    protected int mStreamPort;
+    protected int mMaxFramesInFlight;
+    protected String mMode;
+    // grayscale frames with luma statistics, instead of the configured format
+    protected boolean mAnalysis;
+    // several outputs produced from every frame, null for a single output of the canvas size
+    protected JSONArray mOutputs;
+    // mean luma difference a frame needs to be delivered, 0 delivers every frame
+    protected double mMotionThreshold;
+    protected long mKeepAliveMs;
+    // delta frames of changed tiles, a tile size of 0 sends whole frames
+    protected int mDeltaTileSize;
+    protected int mDeltaThreshold;
+    protected int mKeyframeInterval;
+    protected int mParallelism;
+    // frames serialized and waiting for the delivery worker, 0 delivers on the frame worker
+    protected int mDeliveryQueueSize;
+    // {x, y, width, height} normalized to the rotated output, null for the whole frame
+    protected volatile double[] mRegionOfInterest;
     private int mDisplayOrientation = 0;
     private JSONArray mArgs;
 
-    private Camera mCamera;
+    // Camera state below is only touched on the camera thread, mCamera is also read elsewhere for null checks
+    private volatile Camera mCamera;
     private int mCameraId = 0;
+    private int mOpenFacing = -1;
+    private boolean mOpening = false;
+    private boolean mNegotiated = false;
+    private boolean mPreviewStarted = false;
+    private SurfaceTexture mPendingSurface = null;
+    private SurfaceTexture mPreviewSurface = null;
+    private final List<CameraOpenListener> mOpenListeners = new ArrayList<>();
+    // bumped by stop() so that an open still in progress releases the camera it gets
+    private final AtomicInteger mOpenGeneration = new AtomicInteger();
+    // startup latencies of the last session
+    private long mStartRequestedNanos = 0;
+    private boolean mWarmStart = false;
+    private long mOpenNanos = 0;
+    private long mNegotiateNanos = 0;
+    private long mStartNanos = 0;
     private int mPreviewFormat;
     private int[] mPreviewFpsRange;
     private String mPreviewFocusMode;
     private Camera.Size mPreviewSize;
-    public boolean mPreviewing = false;
+    private CameraCapabilities mCapabilities;
+    // geometry of the running session, replaced as a whole when the canvas or the display rotation changes
+    private volatile FrameTransformPlan mTransformPlan = null;
+    private boolean mDisplayListenerRegistered = false;
+    // last plan computed for a pull request, with the session plan and request size it was derived from
+    private FrameTransformPlan mPullPlan = null;
+    private FrameTransformPlan mPullPlanSession = null;
+    private int mPullPlanWidth = 0;
+    private int mPullPlanHeight = 0;
+    private PreviewBufferPool mBufferPool = null;
+    private FrameSource mFrameSource = null;
+    private FramePipeline mFramePipeline = null;
+    private FrameStripes mFrameStripes = null;
+    private volatile TileDeltaEncoder mTileDeltaEncoder = null;
+    private CopyOnWriteArrayList<FrameProcessor> mFrameProcessors = new CopyOnWriteArrayList<>();
+    private final FrameSerializer mFrameSerializer = new FrameSerializer();
+    // Frame payloads are serialized as soon as they are resolved, a single instance is reused
+    private final JSObject mFrame = new JSObject();
+    private final CopyOnWriteArrayList<PendingCapture> mPendingCaptures = new CopyOnWriteArrayList<>();
+    // With a delivery stage, frames are delivered on their own worker while the next frame is encoded
+    private FrameDelivery<PendingFrame> mFrameDelivery = null;
+    private FrameStreamServer mFrameStreamServer = null;
+    private FrameCredits mFrameCredits = new FrameCredits(0, FRAME_ACK_TIMEOUT_MS);
+    private final FrameStats mStats = new FrameStats();
+    // Pull mode keeps the newest raw frame and encodes it on request only
+    private final LatestFrameSlot mLatestFrameSlot = new LatestFrameSlot();
+    private final FrameTransformer mPullTransformer = new FrameTransformer();
+    private final Map<String, FrameEncoder> mPullEncoders = new HashMap<>();
+    private final FrameSerializer mPullSerializer = new FrameSerializer();
+    public volatile boolean mPreviewing = false;
 
     private Activity mActivity = null;
     private TextureView mTextureView = null;
     private CameraHandlerThread mThread = null;
-    private Thread renderThread = null;
 
     public CameraPreview(Activity activity) {
         mActivity = activity;
@@ -82,18 +222,51 @@ public class CameraPreview {
         eventListener = listener;
     }
 
+    /**
+     * Shares the processors run on every pushed frame, the list may change while previewing.
+     */
+    public void setFrameProcessors(CopyOnWriteArrayList<FrameProcessor> processors) {
+        mFrameProcessors = processors;
+    }
+
+    public void addFrameProcessor(FrameProcessor processor) {
+        mFrameProcessors.addIfAbsent(processor);
+    }
+
+    public void removeFrameProcessor(FrameProcessor processor) {
+        mFrameProcessors.remove(processor);
+    }
+
     public void initialize(JSONObject options) {
         try {
             parseOptions(options);
+            // a prewarmed camera negotiates again with the new options when started
+            invalidateParameters();
         } catch (Exception e) {
             error("Failed to parse options", e);
         }
     }
 
     public boolean start() {
-        stop();
+        final long requested = System.nanoTime();
+        getCameraThread().post(new Runnable() {
+            @Override
+            public void run() {
+                // a camera prewarmed for the same lens is kept, anything else starts over
+                mStartRequestedNanos = requested;
+                mWarmStart = (mCamera != null || mOpening) && !mPreviewStarted && mOpenFacing == mCameraFacing;
+                if (!mWarmStart) {
+                    mOpenGeneration.incrementAndGet();
+                    mPendingSurface = null;
+                    releaseCamera();
+                }
+            }
+        });
         removePreviewSurface();
         if (checkCameraHardware(mActivity)) {
+            if ("stream".equals(mTransport) && !startStreaming()) {
+                return false;
+            }
             mPreviewing = true;
             log("Initializing preview surface...");
             return initPreviewSurface();
@@ -104,22 +277,901 @@ public class CameraPreview {
         }
     }
 
+    /**
+     * Stops the preview and releases the camera on the camera thread, an open in progress is cancelled.
+     */
     public void stop() {
+        mOpenGeneration.incrementAndGet();
+        mPreviewing = false;
+        getCameraThread().post(new Runnable() {
+            @Override
+            public void run() {
+                mPendingSurface = null;
+                releaseCamera();
+            }
+        });
+    }
+
+    /**
+     * Opens the camera and negotiates its parameters ahead of {@link #start()}, which then only attaches the preview surface.
+     */
+    public void prewarm(final CameraOpenListener listener) {
+        if (!checkCameraHardware(mActivity)) {
+            warn("No camera detected !");
+            listener.onCameraOpened(false);
+            return;
+        }
+        getCameraThread().post(new Runnable() {
+            @Override
+            public void run() {
+                openCamera(listener);
+            }
+        });
+    }
+
+    private synchronized CameraHandlerThread getCameraThread() {
+        if (mThread == null) {
+            mThread = new CameraHandlerThread();
+        }
+        return mThread;
+    }
+
+    private void invalidateParameters() {
+        getCameraThread().post(new Runnable() {
+            @Override
+            public void run() {
+                mNegotiated = false;
+            }
+        });
+    }
+
+    /**
+     * Opens the camera facing {@link #mCameraFacing} without blocking, on the camera thread.
+     * Once opened parameters are negotiated and a surface that became available meanwhile gets the preview.
+     */
+    private void openCamera(@Nullable CameraOpenListener listener) {
+        if (mCamera != null && mOpenFacing == mCameraFacing) {
+            if (listener != null) {
+                listener.onCameraOpened(true);
+            }
+            return;
+        }
+        if (listener != null) {
+            mOpenListeners.add(listener);
+        }
+        if (mOpening) {
+            return;
+        }
+        releaseCamera();
+
+        final int cameraId = findCameraId(mCameraFacing);
+        if (cameraId < 0) {
+            warn("Could not get camera instance.");
+            onCameraOpenFailed();
+            return;
+        }
+        final int generation = mOpenGeneration.get();
+        final long requested = System.nanoTime();
+        mOpening = true;
+        mOpenFacing = mCameraFacing;
+        log("Trying to open camera : " + cameraId);
+        getCameraThread().openCamera(cameraId, new CameraHandlerThread.OpenCallback() {
+            @Override
+            public void onOpened(Camera camera) {
+                mOpening = false;
+                if (generation != mOpenGeneration.get()) {
+                    // stopped or restarted while opening
+                    camera.release();
+                    if (mPendingSurface != null) {
+                        // a start() since then is waiting on this open, the camera it asked for is opened instead
+                        openCamera(null);
+                    } else {
+                        onCameraOpenFailed();
+                    }
+                    return;
+                }
+                mCamera = camera;
+                mCameraId = cameraId;
+                mOpenNanos = System.nanoTime() - requested;
+                long negotiating = System.nanoTime();
+                try {
+                    setPreviewParameters();
+                } catch (Exception e) {
+                    error("Failed to set camera parameters : " + e.getMessage(), e);
+                    releaseCamera();
+                    onCameraOpenFailed();
+                    return;
+                }
+                mNegotiateNanos = System.nanoTime() - negotiating;
+                log("Camera [" + cameraId + "] opened in " + toMillis(mOpenNanos) + " ms, parameters negotiated in " + toMillis(mNegotiateNanos) + " ms.");
+                notifyCameraOpened(true);
+
+                SurfaceTexture surface = mPendingSurface;
+                mPendingSurface = null;
+                if (surface != null) {
+                    startPreview(surface);
+                }
+            }
+
+            @Override
+            public void onError(RuntimeException e) {
+                mOpening = false;
+                onCameraOpenFailed();
+            }
+        });
+    }
+
+    private void onCameraOpenFailed() {
+        if (mPendingSurface != null) {
+            mPendingSurface = null;
+            mPreviewing = false;
+            warn("Could not get camera instance.");
+        }
+        notifyCameraOpened(false);
+    }
+
+    private void notifyCameraOpened(boolean opened) {
+        List<CameraOpenListener> listeners = new ArrayList<>(mOpenListeners);
+        mOpenListeners.clear();
+        for (CameraOpenListener listener : listeners) {
+            listener.onCameraOpened(opened);
+        }
+    }
+
+    /**
+     * Starts the preview into the given surface on the camera thread, opening the camera first when needed.
+     */
+    private void startPreview(SurfaceTexture surface) {
+        if (mCamera == null) {
+            mPendingSurface = surface;
+            openCamera(null);
+            return;
+        }
+        try {
+            if (!mNegotiated) {
+                setPreviewParameters();
+            }
+
+            mCamera.setPreviewTexture(surface);
+            mPreviewSurface = surface;
+            mCamera.setDisplayOrientation(mDisplayOrientation);
+            updateTransformPlan();
+            registerDisplayListener();
+            mCamera.setErrorCallback(mCameraErrorCallback);
+            // Frames are processed in order on the frame worker
+            // so that a slow frame never blocks the camera thread
+            startFrameStripes();
+            if (!isPullMode()) {
+                startFramePipeline();
+            }
+            mFrameSource = new CameraFrameSource(mCamera, mPreviewSize.width, mPreviewSize.height, mPreviewFormat, mBufferPool);
+            mFrameSource.start(isPullMode() ? mPullFrameListener : mFramePipeline);
+
+            mCamera.startPreview();
+            mPreviewStarted = true;
+            mPreviewing = true;
+            mStartNanos = System.nanoTime() - mStartRequestedNanos;
+            log("Camera [" + mCameraId + "] started in " + toMillis(mStartNanos) + " ms (" + (mWarmStart ? "warm" : "cold") + " start).");
+        } catch (Exception e) {
+            mPreviewing = false;
+            error("Failed to init preview: " + e.getMessage(), e);
+            releaseCamera();
+        }
+    }
+
+    /**
+     * Stops the preview and releases the camera, on the camera thread.
+     */
+    private void releaseCamera() {
+        unregisterDisplayListener();
+        mPreviewSurface = null;
+        mPreviewStarted = false;
+        mNegotiated = false;
         if (mCamera != null) {
+            // a still may never be taken now, and pushed frames stop
+            failPendingCaptures("Camera stopped");
             try {
                 mCamera.stopPreview();
-                mCamera.setPreviewCallback(null);
+                stopFrameSource();
+                stopFramePipeline();
+                stopFrameStripes();
+                mLatestFrameSlot.clear();
+                releaseBufferPool();
                 mCamera.release();
-                mCamera = null;
-                renderThread.interrupt();
-                mThread.interrupt();
                 log("Camera [" + mCameraId + "] stopped.");
-                mCameraId = 0;
             } catch (Exception e) {
                 error("Could not stop camera [" + mCameraId + "] : " + e.getMessage(), e);
             }
+            mCamera = null;
+            mCameraId = 0;
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+    private boolean startStreaming() {
+        if (mFrameStreamServer == null) {
+            mFrameStreamServer = new FrameStreamServer(mStreamPort);
+        }
+        try {
+            mFrameStreamServer.start();
+            log("Frame stream server listening on port " + mFrameStreamServer.getPort() + ".");
+            return true;
+        } catch (Exception e) {
+            error("Could not start frame stream server : " + e.getMessage(), e);
+            mFrameStreamServer = null;
+            return false;
+        }
+    }
+
+    /**
+     * Closes the frame stream server along with every client, preview restarts keep it running.
+     */
+    public void stopStreaming() {
+        if (mFrameStreamServer != null) {
+            mFrameStreamServer.stop();
+            log("Frame stream server stopped, " + mFrameStreamServer.getDroppedCount() + " frames skipped by clients.");
+            mFrameStreamServer = null;
+        }
+    }
+
+    /**
+     * @return the stream URLs when frames are streamed rather than sent through the bridge.
+     */
+    @Nullable
+    public JSObject getStreamInfo() {
+        FrameStreamServer server = mFrameStreamServer;
+        if (server == null || !server.isRunning()) {
+            return null;
+        }
+        JSObject info = new JSObject();
+        info.put("streamUrl", server.getStreamUrl());
+        info.put("webSocketUrl", server.getWebSocketUrl());
+        return info;
+    }
+
+    /**
+     * Acknowledges every delivered frame up to {@code sequence}, giving their credits back.
+     */
+    public void ackFrame(long sequence) {
+        mFrameCredits.acknowledge(sequence);
+    }
+
+    /**
+     * @return frame counters and per stage latencies in milliseconds since the last reset.
+     */
+    public JSObject getStats() {
+        JSObject frames = new JSObject();
+        frames.put("received", mStats.getReceived());
+        frames.put("processed", mStats.getProcessed());
+        frames.put("dropped", mStats.getDropped());
+        frames.put("delivered", mStats.getDelivered());
+
+        JSObject stages = new JSObject();
+        for (FrameStats.Stage stage : FrameStats.Stage.values()) {
+            stages.put(stage.key, toJSObject(mStats.getStage(stage)));
+        }
+
+        JSObject stats = new JSObject();
+        stats.put("since", mStats.getSince());
+        stats.put("frames", frames);
+        stats.put("bytesOut", mStats.getBytesOut());
+        stats.put("stages", stages);
+        stats.put("latency", toJSObject(mStats.getEndToEnd()));
+
+        PreviewBufferPool bufferPool = mBufferPool;
+        if (bufferPool != null) {
+            JSObject pool = new JSObject();
+            pool.put("size", bufferPool.getBufferCount());
+            pool.put("dry", bufferPool.getDryCount());
+            stats.put("bufferPool", pool);
+        }
+        if (mStartNanos > 0) {
+            JSObject startup = new JSObject();
+            startup.put("warm", mWarmStart);
+            startup.put("open", toMillis(mOpenNanos));
+            startup.put("negotiate", toMillis(mNegotiateNanos));
+            startup.put("start", toMillis(mStartNanos));
+            stats.put("startup", startup);
+        }
+        FrameTransformPlan plan = mTransformPlan;
+        if (plan != null) {
+            JSObject transform = new JSObject();
+            transform.put("path", plan.getScalePath());
+            transform.put("sampleFactor", plan.sampleFactor);
+            transform.put("cropped", plan.isCropped());
+            transform.put("width", plan.outputWidth);
+            transform.put("height", plan.outputHeight);
+            stats.put("transform", transform);
+        }
+        FramePipeline pipeline = mFramePipeline;
+        if (pipeline != null && pipeline.getMotionGate().isEnabled()) {
+            MotionGate motionGate = pipeline.getMotionGate();
+            JSObject motion = new JSObject();
+            motion.put("delivered", motionGate.getPassedCount());
+            motion.put("skipped", motionGate.getSkippedCount());
+            motion.put("keepAlive", motionGate.getKeepAliveCount());
+            motion.put("skipRatio", motionGate.getSkipRatio());
+            motion.put("difference", motionGate.getLastDifference());
+            stats.put("motion", motion);
+        }
+        TileDeltaEncoder tileDeltaEncoder = mTileDeltaEncoder;
+        if (tileDeltaEncoder != null) {
+            JSObject delta = new JSObject();
+            delta.put("keyframes", tileDeltaEncoder.getKeyframeCount());
+            delta.put("tiles", tileDeltaEncoder.getSentTileCount());
+            delta.put("tileRatio", tileDeltaEncoder.getSentTileRatio());
+            stats.put("delta", delta);
+        }
+        FrameStreamServer server = mFrameStreamServer;
+        if (server != null) {
+            JSObject stream = new JSObject();
+            stream.put("clients", server.getClientCount());
+            stream.put("dropped", server.getDroppedCount());
+            stats.put("stream", stream);
+        }
+        return stats;
+    }
+
+    public void resetStats() {
+        mStats.reset();
+        FramePipeline pipeline = mFramePipeline;
+        if (pipeline != null) {
+            pipeline.getMotionGate().resetCounters();
+        }
+    }
+
+    private JSObject toJSObject(LatencyHistogram histogram) {
+        JSObject result = new JSObject();
+        result.put("count", histogram.getCount());
+        result.put("mean", histogram.getMean() / 1e6);
+        result.put("p50", histogram.getPercentile(50) / 1e6);
+        result.put("p95", histogram.getPercentile(95) / 1e6);
+        result.put("p99", histogram.getPercentile(99) / 1e6);
+        result.put("max", histogram.getMax() / 1e6);
+        return result;
+    }
+
+    public boolean isPullMode() {
+        return "pull".equals(mMode);
+    }
+
+    /**
+     * Derives the plan of a pull request from the session plan, it is only recomputed when the request size changes.
+     */
+    private FrameTransformPlan getPullPlan(RawFrame rawFrame, int width, int height) {
+        FrameTransformPlan session = mTransformPlan;
+        if (session == null || session.sourceWidth != rawFrame.width || session.sourceHeight != rawFrame.height) {
+            session = createTransformPlan(rawFrame.width, rawFrame.height, mCanvasWidth, mCanvasHeight);
+        }
+        if (width <= 0 && height <= 0) {
+            return session;
+        }
+        if (mPullPlan == null || mPullPlanSession != session || mPullPlanWidth != width || mPullPlanHeight != height) {
+            mPullPlan = createTransformPlan(rawFrame.width, rawFrame.height, width > 0 ? width : mCanvasWidth, height > 0 ? height : mCanvasHeight);
+            mPullPlanSession = session;
+            mPullPlanWidth = width;
+            mPullPlanHeight = height;
+        }
+        return mPullPlan;
+    }
+
+    /**
+     * Encodes the newest preview frame on demand, in pull mode.
+     * @param width target width, the canvas width when not positive
+     * @param height target height, the canvas height when not positive
+     * @return null when no frame is available
+     */
+    @Nullable
+    public synchronized JSObject getLatestFrame(int width, int height, String format, int quality) {
+        RawFrame rawFrame = mLatestFrameSlot.borrow();
+        if (rawFrame == null) {
+            return null;
+        }
+        try {
+            mPullTransformer.configure(getPullPlan(rawFrame, width, height));
+
+            boolean analysis = mAnalysis;
+            String encoderKey = analysis ? K_ANALYSIS_KEY : format + ":" + quality;
+            FrameEncoder encoder = mPullEncoders.get(encoderKey);
+            if (encoder == null) {
+                encoder = util.getFrameEncoder(format, quality, analysis);
+                mPullEncoders.put(encoderKey, encoder);
+            }
+            long start = System.nanoTime();
+            FrameOutputStream encoded = encoder.encode(mPullTransformer, rawFrame.data);
+            mStats.recordEncoding(mPullTransformer, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            JSObject frame = new JSObject();
+            String imageDataUri = mPullSerializer.toDataUri(encoder.getMimeType(), encoded.getBuffer(), 0, encoded.size());
+            frame.put("data", imageDataUri);
+            frame.put("sequence", rawFrame.sequence);
+            frame.put("size", encoded.size());
+            frame.put("format", encoder.getFormat());
+            frame.put("width", mPullTransformer.getOutputWidth());
+            frame.put("height", mPullTransformer.getOutputHeight());
+            frame.put("timestamp", rawFrame.timestamp);
+            putLumaStats(frame, encoder);
+            long end = System.nanoTime();
+            mStats.recordStage(FrameStats.Stage.SERIALIZE, end - start);
+            mStats.onDelivered(imageDataUri.length(), end - rawFrame.captureNanos);
+            return frame;
+        } finally {
+            mLatestFrameSlot.giveBack(rawFrame);
+        }
+    }
+
+    /**
+     * Writes a picture to a file of the app cache, the encoded data is streamed to the file and never kept in memory as a whole.
+     * @param still whether the camera takes a still at its largest picture size, instead of encoding the current preview frame
+     * @param exifOrientation whether a preview frame is encoded as captured and tagged with its Exif orientation, instead of
+     * being rotated and mirrored before encoding. Stills are oriented by the camera driver, which may do either.
+     */
+    public void capture(boolean still, int quality, boolean exifOrientation, CaptureListener listener) {
+        if (!mPreviewing) {
+            listener.onCaptureFailed("Camera is not running");
+            return;
+        }
+        quality = Math.max(0, Math.min(100, quality));
+        final PendingCapture capture = new PendingCapture(listener);
+        mPendingCaptures.add(capture);
+        getCameraThread().getHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (capture.fail("Capture timed out")) {
+                    warn("Capture timed out after " + CAPTURE_TIMEOUT_MS + " ms.");
+                }
+            }
+        }, CAPTURE_TIMEOUT_MS);
+        if (still) {
+            captureStill(quality, capture);
+        } else if (isPullMode()) {
+            RawFrame rawFrame = mLatestFrameSlot.borrow();
+            if (rawFrame == null) {
+                capture.fail("No frame available yet");
+                return;
+            }
+            // kept past the slot, until the picture is written
+            rawFrame.retain();
+            mLatestFrameSlot.giveBack(rawFrame);
+            postPreviewCapture(rawFrame, quality, exifOrientation, capture);
+        } else {
+            FrameProcessor processor = new CaptureProcessor(quality, exifOrientation, capture);
+            capture.mProcessor = processor;
+            addFrameProcessor(processor);
+            if (capture.isSettled()) {
+                // released meanwhile, before the processor was there to remove
+                removeFrameProcessor(processor);
+            }
+        }
+    }
+
+    /**
+     * Capture in progress, settled once by its result, a failure, a timeout or the camera being released.
+     * Whatever settles it last is ignored.
+     */
+    private final class PendingCapture {
+        private final CaptureListener mListener;
+        private final AtomicBoolean mSettled = new AtomicBoolean(false);
+        // push mode processor waiting for a frame, removed once settled
+        private volatile FrameProcessor mProcessor = null;
+
+        PendingCapture(CaptureListener listener) {
+            mListener = listener;
+        }
+
+        boolean isSettled() {
+            return mSettled.get();
+        }
+
+        boolean succeed(JSObject result) {
+            if (!settle()) {
+                return false;
+            }
+            mListener.onCaptured(result);
+            return true;
+        }
+
+        boolean fail(String message) {
+            if (!settle()) {
+                return false;
+            }
+            mListener.onCaptureFailed(message);
+            return true;
+        }
+
+        private boolean settle() {
+            if (!mSettled.compareAndSet(false, true)) {
+                return false;
+            }
+            mPendingCaptures.remove(this);
+            FrameProcessor processor = mProcessor;
+            if (processor != null) {
+                removeFrameProcessor(processor);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Fails every capture in progress, on the camera thread when the camera is released.
+     */
+    private void failPendingCaptures(String message) {
+        for (PendingCapture capture : mPendingCaptures) {
+            capture.fail(message);
+        }
+    }
+
+    /**
+     * Takes the next pushed frame for a capture, then removes itself.
+     */
+    private final class CaptureProcessor implements FrameProcessor {
+        private final int mQuality;
+        private final boolean mExifOrientation;
+        private final PendingCapture mCapture;
+        private boolean mCaptured = false;
+
+        CaptureProcessor(int quality, boolean exifOrientation, PendingCapture capture) {
+            mQuality = quality;
+            mExifOrientation = exifOrientation;
+            mCapture = capture;
+        }
+
+        @Override
+        public String getName() {
+            return "capture";
+        }
+
+        @Override
+        public void process(RawFrame frame, FrameTransformPlan plan, ResultListener results) {
+            if (mCaptured) {
+                return;
+            }
+            mCaptured = true;
+            removeFrameProcessor(this);
+            if (!mCapture.isSettled()) {
+                postPreviewCapture(frame.retain(), mQuality, mExifOrientation, mCapture);
+            }
+        }
+    }
+
+    /**
+     * Encodes a retained preview frame at full size on the camera thread, and releases it.
+     */
+    private void postPreviewCapture(final RawFrame rawFrame, final int quality, final boolean exifOrientation, final PendingCapture capture) {
+        final int rotation = mDisplayOrientation;
+        final boolean mirror = mCameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+        getCameraThread().post(new Runnable() {
+            @Override
+            public void run() {
+                File file = null;
+                try {
+                    if (capture.isSettled()) {
+                        return;
+                    }
+                    // an Exif tagged capture is encoded from the preview buffer itself
+                    FrameTransformer transformer = new FrameTransformer();
+                    transformer.configure(
+                        new FrameTransformPlan(
+                            rawFrame.width,
+                            rawFrame.height,
+                            rawFrame.width,
+                            rawFrame.height,
+                            exifOrientation ? 0 : rotation,
+                            !exifOrientation && mirror
+                        )
+                    );
+                    transformer.setStripes(mFrameStripes);
+                    byte[] nv21 = transformer.toNv21(rawFrame.data);
+                    int width = transformer.getOutputWidth();
+                    int height = transformer.getOutputHeight();
+                    int orientation = exifOrientation ? ExifOrientationStream.getOrientation(rotation, mirror) : ExifOrientationStream.ORIENTATION_NORMAL;
+
+                    file = util.createCaptureFile("jpg");
+                    try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+                        OutputStream out = Channels.newOutputStream(channel);
+                        if (exifOrientation) {
+                            out = new ExifOrientationStream(out, orientation);
+                        }
+                        new YuvImage(nv21, ImageFormat.NV21, width, height, null).compressToJpeg(new Rect(0, 0, width, height), quality, out);
+                        out.flush();
+                    }
+                    log("Preview frame captured to " + file.getPath() + ".");
+                    if (!capture.succeed(toCaptureResult(file, width, height, orientation))) {
+                        // timed out meanwhile, nobody gets the file
+                        file.delete();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    error("Failed to capture preview frame : " + e.getMessage(), e);
+                    if (file != null) {
+                        file.delete();
+                    }
+                    capture.fail("Could not capture preview frame");
+                } finally {
+                    rawFrame.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes a still at the largest picture size of the preview aspect ratio, then resumes the preview.
+     */
+    private void captureStill(final int quality, final PendingCapture capture) {
+        getCameraThread().post(new Runnable() {
+            @Override
+            public void run() {
+                final Camera camera = mCamera;
+                if (camera == null || !mPreviewStarted) {
+                    capture.fail("Camera is not running");
+                    return;
+                }
+                final int[] pictureSize;
+                try {
+                    Camera.Parameters parameters = camera.getParameters();
+                    pictureSize = util.getLargestPictureSize(parameters, mPreviewSize.width, mPreviewSize.height);
+                    if (pictureSize != null) {
+                        parameters.setPictureSize(pictureSize[0], pictureSize[1]);
+                    }
+                    parameters.setPictureFormat(ImageFormat.JPEG);
+                    parameters.setJpegQuality(Math.max(1, quality));
+                    // the rotation set along the live parameters tells the driver how to orient the picture
+                    camera.setParameters(parameters);
+                    camera.takePicture(null, null, new Camera.PictureCallback() {
+                        @Override
+                        public void onPictureTaken(byte[] data, Camera camera) {
+                            writeStill(data, pictureSize, capture);
+                            // the preview stops once the picture is taken
+                            if (camera == mCamera && mPreviewStarted) {
+                                try {
+                                    camera.startPreview();
+                                } catch (RuntimeException e) {
+                                    error("Could not resume preview : " + e.getMessage(), e);
+                                }
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    error("Failed to take picture : " + e.getMessage(), e);
+                    capture.fail("Could not take picture");
+                }
+            }
+        });
+    }
+
+    private void writeStill(byte[] data, int[] pictureSize, PendingCapture capture) {
+        if (capture.isSettled()) {
+            return;
+        }
+        if (data == null) {
+            capture.fail("Camera returned no picture");
+            return;
+        }
+        File file = null;
+        try {
+            file = util.createCaptureFile("jpg");
+            try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            error("Failed to write picture : " + e.getMessage(), e);
+            if (file != null) {
+                file.delete();
+            }
+            capture.fail("Could not write picture");
+            return;
+        }
+        log("Picture captured to " + file.getPath() + ".");
+        int width = pictureSize != null ? pictureSize[0] : 0;
+        int height = pictureSize != null ? pictureSize[1] : 0;
+        if (!capture.succeed(toCaptureResult(file, width, height, 0))) {
+            file.delete();
+        }
+    }
+
+    /**
+     * @param orientation Exif orientation written with the picture, 0 when left to the camera driver
+     */
+    private JSObject toCaptureResult(File file, int width, int height, int orientation) {
+        JSObject result = new JSObject();
+        result.put("path", file.getAbsolutePath());
+        result.put("uri", Uri.fromFile(file).toString());
+        result.put("width", width);
+        result.put("height", height);
+        result.put("size", file.length());
+        if (orientation > 0) {
+            result.put("orientation", orientation);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the luma statistics of the frame just encoded, when analyzing.
+     */
+    private void putLumaStats(JSObject frame, FrameEncoder encoder) {
+        LumaStats lumaStats = encoder instanceof GrayFrameEncoder ? ((GrayFrameEncoder) encoder).getLumaStats() : null;
+        if (lumaStats == null) {
+            frame.remove("luma");
+            return;
+        }
+        JSONArray histogram = new JSONArray();
+        for (int count : lumaStats.getHistogram()) {
+            histogram.put(count);
+        }
+        JSObject luma = new JSObject();
+        luma.put("mean", lumaStats.getMean());
+        luma.put("sharpness", lumaStats.getSharpness());
+        luma.put("histogram", histogram);
+        frame.put("luma", luma);
+    }
+
+    /**
+     * Adds the position of every tile of a delta frame within the frame and within its data.
+     */
+    private void putTiles(JSObject frame, @Nullable TileDeltaEncoder tileDeltaEncoder) {
+        if (tileDeltaEncoder == null) {
+            frame.remove("keyframe");
+            frame.remove("tiles");
+            return;
+        }
+        JSONArray tiles = new JSONArray();
+        int[][] entries = tileDeltaEncoder.getTiles();
+        for (int i = 0; i < tileDeltaEncoder.getTileCount(); i++) {
+            int[] entry = entries[i];
+            JSObject tile = new JSObject();
+            tile.put("x", entry[TileDeltaEncoder.TILE_X]);
+            tile.put("y", entry[TileDeltaEncoder.TILE_Y]);
+            tile.put("width", entry[TileDeltaEncoder.TILE_WIDTH]);
+            tile.put("height", entry[TileDeltaEncoder.TILE_HEIGHT]);
+            tile.put("offset", entry[TileDeltaEncoder.TILE_OFFSET]);
+            tile.put("size", entry[TileDeltaEncoder.TILE_SIZE]);
+            tiles.put(tile);
+        }
+        frame.put("keyframe", tileDeltaEncoder.isKeyframe());
+        frame.put("tiles", tiles);
+    }
+
+    /**
+     * Sends every tile with the next delta frame, when delta frames are enabled.
+     */
+    public void requestKeyframe() {
+        TileDeltaEncoder tileDeltaEncoder = mTileDeltaEncoder;
+        if (tileDeltaEncoder != null) {
+            tileDeltaEncoder.requestKeyframe();
+        }
+    }
+
+    private void startFramePipeline() {
+        mTileDeltaEncoder = null;
+        mFrameCredits = new FrameCredits(mMaxFramesInFlight, FRAME_ACK_TIMEOUT_MS);
+        if (mOutputs != null) {
+            mFramePipeline = new FramePipeline(
+                "CameraFrameWorker",
+                mFrameQueueSize,
+                mDropPolicy,
+                createFramePyramid(mOutputs),
+                mFrameCredits,
+                mStats,
+                mFrameConfigurator,
+                mFrameSink
+            );
+        } else {
+            FrameEncoder encoder = util.getFrameEncoder(mFormat, mQuality, mAnalysis);
+            if (mDeltaTileSize > 0 && "stream".equals(mTransport)) {
+                // stream clients render whole images and may skip frames, tiles would leave them stale
+                warn("Delta frames are not sent with the stream transport, frames are sent whole.");
+            } else if (mDeltaTileSize > 0 && !mAnalysis) {
+                mTileDeltaEncoder = new TileDeltaEncoder(encoder, mDeltaTileSize, mDeltaThreshold, mKeyframeInterval);
+                encoder = mTileDeltaEncoder;
+                log("Delta frames are set to tiles of " + mDeltaTileSize + " pixels, keyframes every " + mKeyframeInterval + " frames.");
+            }
+            mFramePipeline = new FramePipeline(
+                "CameraFrameWorker",
+                mFrameQueueSize,
+                mDropPolicy,
+                encoder,
+                mFrameCredits,
+                mStats,
+                mFrameConfigurator,
+                mFrameSink
+            );
+        }
+        mFramePipeline.setMotionGate(new MotionGate(mMotionThreshold, mKeepAliveMs));
+        mFramePipeline.setFrameProcessors(mFrameProcessors, mProcessorResultListener);
+        mFramePipeline.setStripes(mFrameStripes);
+        startDeliveryWorker();
+        mFramePipeline.start();
+    }
+
+    /**
+     * Creates one pyramid level per output spec, missing values default to the canvas size, format and quality.
+     * Grayscale outputs carry luma statistics in analysis mode.
+     */
+    private FramePyramid createFramePyramid(JSONArray specs) {
+        List<FramePyramid.Output> outputs = new ArrayList<>();
+        for (int i = 0; i < specs.length(); i++) {
+            JSONObject spec = specs.optJSONObject(i);
+            if (spec == null) {
+                spec = new JSONObject();
+            }
+            String format = spec.optString(K_FORMAT_KEY, mFormat);
+            outputs.add(
+                new FramePyramid.Output(
+                    spec.optInt(K_WIDTH_KEY, mCanvasWidth),
+                    spec.optInt(K_HEIGHT_KEY, mCanvasHeight),
+                    spec.optInt(K_RATE_DIVISOR_KEY, 1),
+                    util.getFrameEncoder(format, spec.optInt(K_QUALITY_KEY, mQuality), mAnalysis && "gray".equals(format))
+                )
+            );
+        }
+        log("Frame pyramid is set to " + outputs.size() + " outputs.");
+        return new FramePyramid(outputs);
+    }
+
+    /**
+     * Starts the threads converting frames in bands, small frames are still converted on a single thread.
+     */
+    private void startFrameStripes() {
+        if (mParallelism <= 1) {
+            mFrameStripes = null;
+        } else {
+            mFrameStripes = new FrameStripes(mParallelism);
+            log("Frame conversion is split over " + mParallelism + " threads.");
+        }
+        mPullTransformer.setStripes(mFrameStripes);
+    }
+
+    private void stopFrameStripes() {
+        if (mFrameStripes != null) {
+            mFrameStripes.shutdown();
+            mFrameStripes = null;
+        }
+    }
+
+    /**
+     * Delivers serialized frames in capture order on a second worker, so the frame worker moves on to the next frame.
+     */
+    private void startDeliveryWorker() {
+        mFrameDelivery = null;
+        if (mDeliveryQueueSize <= 0) {
+            return;
+        }
+        mFrameDelivery = new FrameDelivery<>("CameraFrameDelivery", mDeliveryQueueSize, mPendingFrameFactory, mDeliveryHandler);
+        mFrameDelivery.start();
+        log("Frames are delivered on their own worker, up to " + mDeliveryQueueSize + " frames queued.");
+    }
+
+    private void stopFramePipeline() {
+        if (mFramePipeline != null) {
+            mFramePipeline.stop();
+            log("Frame worker dropped " + mFramePipeline.getDroppedCount() + " frames, " + mFrameCredits.getSkippedCount() + " skipped waiting for acks.");
+            mFramePipeline = null;
+        }
+        if (mFrameDelivery != null) {
+            mFrameDelivery.stop();
+            mFrameDelivery = null;
+        }
+    }
+
+    private void stopFrameSource() {
+        if (mFrameSource != null) {
+            mFrameSource.stop();
+            mFrameSource = null;
+        }
+    }
+
+    private void releaseBufferPool() {
+        if (mBufferPool != null) {
+            mBufferPool.detach();
+            log("Preview buffer pool ran dry " + mBufferPool.getDryCount() + " times over " + mBufferPool.getFrameCount() + " frames.");
+            mBufferPool = null;
         }
-        mPreviewing = false;
     }
 
     private void removePreviewSurface() {
@@ -158,149 +1210,400 @@ public class CameraPreview {
 
     private void setPreviewParameters() {
         if (mCamera != null) {
+            releaseBufferPool();
             // set display orientation
             mDisplayOrientation = util.getDisplayOrientation(mCameraId);
             Camera.Parameters parameters = mCamera.getParameters();
+            // supported values are only read from the parameters the first time this camera is opened
+            mCapabilities = util.getCapabilityCache().get(mCameraId, parameters);
             // sets optimal preview size.
-            mPreviewSize = util.getOptimalPreviewSize(parameters, mCaptureWidth, mCaptureHeight);
+            int[] previewSize = util.getOptimalPreviewSize(mCapabilities, mCaptureWidth, mCaptureHeight, mCanvasWidth, mCanvasHeight);
+            mPreviewSize = previewSize != null ? mCamera.new Size(previewSize[0], previewSize[1]) : null;
             if (mPreviewSize != null) {
                 parameters.setPreviewSize(mPreviewSize.width, mPreviewSize.height);
                 log("Preview size is set to w : " + mPreviewSize.width + ", h : " + mPreviewSize.height + ".");
             }
-            // sets camera rotation
-            int mCameraRotation = util.getCameraRotation(mCameraId);
-            parameters.setRotation(mCameraRotation);
-            // sets optimal preview fps range.
-            mPreviewFpsRange = util.getOptimalFrameRate(parameters, mFps);
-            if (mPreviewFpsRange != null) {
-                parameters.setPreviewFpsRange(mPreviewFpsRange[0], mPreviewFpsRange[1]);
-                log("Preview fps range is set to min : " + (mPreviewFpsRange[0] / 1000) + ", max : " + (mPreviewFpsRange[1] / 1000) + ".");
-            }
-            // sets optimal preview focus mode.
-            mPreviewFocusMode = util.getOptimalFocusMode(parameters);
-            if (mPreviewFocusMode != null) {
-                parameters.setFocusMode(mPreviewFocusMode);
-                log("Preview focus mode is set to : " + mPreviewFocusMode + ".");
-            }
-            // sets flash mode
-            mFlashMode = util.getOptimalFlashMode(parameters, mFlashMode);
-            if (mFlashMode != null) {
-                parameters.setFlashMode(mFlashMode);
-                log("Preview flash mode is set to : " + mFlashMode + ".");
-            }
+            // sets rotation, fps range, focus and flash mode
+            setLiveParameters(parameters);
+            // sets preview pixel format, frames are transformed as NV21
+            parameters.setPreviewFormat(ImageFormat.NV21);
             // sets camera parameters
             mCamera.setParameters(parameters);
             // gets preview pixel format
             mPreviewFormat = parameters.getPreviewFormat();
+            if (mPreviewSize == null) {
+                mPreviewSize = parameters.getPreviewSize();
+            }
+            // sizes preview callback buffers
+            if (mBufferPoolSize > 0 && mPreviewSize != null) {
+                int bufferSize = util.getPreviewBufferSize(mPreviewSize.width, mPreviewSize.height, mPreviewFormat);
+                // pull mode always holds the newest frame, the camera needs at least another buffer
+                int bufferCount = isPullMode() ? Math.max(2, mBufferPoolSize) : mBufferPoolSize;
+                mBufferPool = new PreviewBufferPool(bufferSize, bufferCount);
+                log("Preview buffer pool is set to " + bufferCount + " buffers of " + bufferSize + " bytes.");
+            }
+            mNegotiated = true;
         }
     }
 
-    private Camera getCameraInstance() {
-        Camera camera = null;
+    /**
+     * Sets the parameters that can change while previewing.
+     */
+    private void setLiveParameters(Camera.Parameters parameters) {
+        // sets camera rotation
+        int mCameraRotation = util.getCameraRotation(mCameraId);
+        parameters.setRotation(mCameraRotation);
+        // sets optimal preview fps range.
+        mPreviewFpsRange = util.getOptimalFrameRate(mCapabilities, mFps);
+        if (mPreviewFpsRange != null) {
+            parameters.setPreviewFpsRange(mPreviewFpsRange[0], mPreviewFpsRange[1]);
+            log("Preview fps range is set to min : " + (mPreviewFpsRange[0] / 1000) + ", max : " + (mPreviewFpsRange[1] / 1000) + ".");
+        }
+        // sets optimal preview focus mode.
+        mPreviewFocusMode = util.getOptimalFocusMode(mCapabilities);
+        if (mPreviewFocusMode != null) {
+            parameters.setFocusMode(mPreviewFocusMode);
+            log("Preview focus mode is set to : " + mPreviewFocusMode + ".");
+        }
+        // sets flash mode
+        mFlashMode = util.getOptimalFlashMode(mCapabilities, mFlashMode);
+        if (mFlashMode != null) {
+            parameters.setFlashMode(mFlashMode);
+            log("Preview flash mode is set to : " + mFlashMode + ".");
+        }
+    }
 
+    /**
+     * Applies flash, focus, fps range and orientation to the running session, on the camera thread.
+     * Falls back to reopening the camera when the device rejects the parameters.
+     */
+    private void applyLiveParameters() {
+        if (mCamera == null) {
+            return;
+        }
         try {
-            int cameraId;
-            int cameraCount = Camera.getNumberOfCameras();
-            Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
-
-            for (cameraId = 0; cameraId < cameraCount; cameraId++) {
-                Camera.getCameraInfo(cameraId, cameraInfo);
-                if (cameraInfo.facing == mCameraFacing) {
-                    log("Trying to open camera : " + cameraId);
-                    try {
-                        mCameraId = cameraId;
-                        //camera = Camera.open(cameraId);
-
-                        if (mThread == null) {
-                            mThread = new CameraHandlerThread();
-                        }
+            Camera.Parameters parameters = mCamera.getParameters();
+            mCapabilities = util.getCapabilityCache().get(mCameraId, parameters);
+            setLiveParameters(parameters);
+            mCamera.setParameters(parameters);
+            mDisplayOrientation = util.getDisplayOrientation(mCameraId);
+            mCamera.setDisplayOrientation(mDisplayOrientation);
+            updateTransformPlan();
+        } catch (RuntimeException e) {
+            warn("Could not apply camera parameters in place, reopening : " + e.getMessage());
+            reopenCamera();
+        }
+    }
 
-                        synchronized (mThread) {
-                            camera = mThread.openCamera(cameraId);
-                        }
+    /**
+     * Reopens the camera into the surface already previewed into, for a lens or preview size change.
+     */
+    private void reopenCamera() {
+        SurfaceTexture surface = mPreviewSurface;
+        mStartRequestedNanos = System.nanoTime();
+        mWarmStart = false;
+        releaseCamera();
+        if (surface != null) {
+            startPreview(surface);
+        }
+    }
 
-                        log("Camera [" + cameraId + "] opened.");
-                        break;
-                    } catch (RuntimeException e) {
-                        error("Unable to open camera : " + e.getMessage(), e);
-                    }
+    /**
+     * Computes the transform plan of the session once, on the camera thread.
+     * Frame workers only read the published plan, so the frame path does no geometry math or service lookups.
+     */
+    private void updateTransformPlan() {
+        if (mPreviewSize == null) {
+            mTransformPlan = null;
+            return;
+        }
+        FrameTransformPlan plan = createTransformPlan(mPreviewSize.width, mPreviewSize.height, mCanvasWidth, mCanvasHeight);
+        if (!plan.hasSameGeometry(mTransformPlan)) {
+            mTransformPlan = plan;
+            log("Frame transform is set to w : " + plan.outputWidth + ", h : " + plan.outputHeight + ", rotation : " + plan.rotation + ", scaling : " + plan.getScalePath() + ".");
+        }
+    }
+
+    /**
+     * Plans the transform of frames of the given size, cropped to the region of interest when one is set.
+     */
+    private FrameTransformPlan createTransformPlan(int width, int height, int targetWidth, int targetHeight) {
+        return FrameTransformPlan.fit(
+            width,
+            height,
+            mRegionOfInterest,
+            targetWidth,
+            targetHeight,
+            mDisplayOrientation,
+            mCameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT
+        );
+    }
+
+    private void registerDisplayListener() {
+        if (!mDisplayListenerRegistered) {
+            DisplayManager displayManager = (DisplayManager) mActivity.getSystemService(Context.DISPLAY_SERVICE);
+            displayManager.registerDisplayListener(mDisplayListener, getCameraThread().getHandler());
+            mDisplayListenerRegistered = true;
+        }
+    }
+
+    private void unregisterDisplayListener() {
+        if (mDisplayListenerRegistered) {
+            DisplayManager displayManager = (DisplayManager) mActivity.getSystemService(Context.DISPLAY_SERVICE);
+            displayManager.unregisterDisplayListener(mDisplayListener);
+            mDisplayListenerRegistered = false;
+        }
+    }
+
+    // Runs on the camera thread, the plan is only swapped when the display rotation actually changed
+    private final DisplayManager.DisplayListener mDisplayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {}
+
+        @Override
+        public void onDisplayRemoved(int displayId) {}
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (mCamera == null) {
+                return;
+            }
+            int displayOrientation = util.getDisplayOrientation(mCameraId);
+            if (displayOrientation != mDisplayOrientation) {
+                mDisplayOrientation = displayOrientation;
+                try {
+                    mCamera.setDisplayOrientation(mDisplayOrientation);
+                } catch (RuntimeException e) {
+                    warn("Could not apply display orientation : " + e.getMessage());
+                }
+                updateTransformPlan();
+            }
+        }
+    };
+
+    private int findCameraId(int facing) {
+        try {
+            CapabilityCache capabilityCache = util.getCapabilityCache();
+            for (int cameraId = 0; cameraId < capabilityCache.getCameraCount(); cameraId++) {
+                if (capabilityCache.getFacing(cameraId) == facing) {
+                    return cameraId;
                 }
             }
         } catch (Exception e) {
             error("No available camera : " + e.getMessage(), e);
         }
+        return -1;
+    }
 
-        return camera;
+    // Pull mode only keeps the newest frame, it is encoded when requested
+    private final FrameSource.FrameListener mPullFrameListener = new FrameSource.FrameListener() {
+        @Override
+        public void onFrame(RawFrame frame) {
+            mStats.onReceived();
+            mLatestFrameSlot.publish(frame);
+        }
+    };
+
+    private final FramePipeline.Configurator mFrameConfigurator = new FramePipeline.Configurator() {
+        @Override
+        public void configure(FrameTransformer transformer, RawFrame frame) {
+            FrameTransformPlan plan = mTransformPlan;
+            if (plan == null || plan.sourceWidth != frame.width || plan.sourceHeight != frame.height) {
+                // frames of a previous preview size still in the queue
+                plan = createTransformPlan(frame.width, frame.height, mCanvasWidth, mCanvasHeight);
+            }
+            transformer.configure(plan);
+        }
+    };
+
+    private final FramePipeline.FrameSink mFrameSink = new FramePipeline.FrameSink() {
+        @Override
+        public boolean onFrame(RawFrame rawFrame, int output, FrameTransformer transformer, FrameEncoder encoder, FrameOutputStream encoded) {
+            if (!mPreviewing) {
+                return false;
+            }
+
+            TileDeltaEncoder tileDeltaEncoder = encoder == mTileDeltaEncoder ? mTileDeltaEncoder : null;
+            if (tileDeltaEncoder != null && tileDeltaEncoder.getTileCount() == 0) {
+                // nothing changed since the last delta frame
+                return false;
+            }
+
+            // JSON output for the encoded image
+            FrameDelivery<PendingFrame> frameDelivery = mFrameDelivery;
+            PendingFrame pending = null;
+            JSObject frame = mFrame;
+            if (frameDelivery != null) {
+                pending = frameDelivery.next();
+                frame = pending.frame;
+            }
+            FrameStreamServer server = mFrameStreamServer;
+            long bytesOut;
+            long start = System.nanoTime();
+            if (server != null) {
+                // Streamed frames only carry metadata over the bridge
+                server.publish(encoded.getBuffer(), 0, encoded.size(), encoder.getMimeType(), rawFrame.sequence, rawFrame.timestamp);
+                frame.remove("data");
+                bytesOut = encoded.size();
+            } else {
+                String imageDataUri = mFrameSerializer.toDataUri(encoder.getMimeType(), encoded.getBuffer(), 0, encoded.size());
+                frame.put("data", imageDataUri);
+                bytesOut = imageDataUri.length();
+            }
+            frame.put("sequence", rawFrame.sequence);
+            frame.put("output", output);
+            frame.put("size", encoded.size());
+            frame.put("format", encoder.getFormat());
+            frame.put("width", transformer.getOutputWidth());
+            frame.put("height", transformer.getOutputHeight());
+            frame.put("timestamp", rawFrame.timestamp);
+            putLumaStats(frame, encoder);
+            putTiles(frame, tileDeltaEncoder);
+            mStats.recordStage(FrameStats.Stage.SERIALIZE, System.nanoTime() - start);
+
+            boolean delivered;
+            if (pending != null) {
+                // the payload is handed over as is, the frame counts as delivered unless the delivery worker gives up on it
+                pending.sequence = rawFrame.sequence;
+                pending.captureNanos = rawFrame.captureNanos;
+                pending.bytesOut = bytesOut;
+                pending.streamed = server != null;
+                pending.delta = tileDeltaEncoder != null;
+                delivered = frameDelivery.submit(pending);
+            } else {
+                delivered = deliverFrame(frame, rawFrame.captureNanos, bytesOut, server != null);
+            }
+            if (!delivered && tileDeltaEncoder != null) {
+                onDeltaFrameLost();
+            }
+            return delivered;
+        }
+
+        @Override
+        public void onError(RawFrame frame, RuntimeException e) {
+            error("Failed to render frame : " + e.getMessage(), e);
+            // tiles may have been marked as sent before the failure
+            requestKeyframe();
+        }
+    };
+
+    /**
+     * Sends a serialized frame to the JavaScript layer via the event listener.
+     * @param streamed whether the image was published to the stream server, the frame is then delivered anyway
+     */
+    private boolean deliverFrame(JSObject frame, long captureNanos, long bytesOut, boolean streamed) {
+        long start = System.nanoTime();
+        boolean delivered = eventListener.onFrameUpdate(frame);
+        long end = System.nanoTime();
+        mStats.recordStage(FrameStats.Stage.DELIVER, end - start);
+        if (delivered || streamed) {
+            mStats.onDelivered(bytesOut, end - captureNanos);
+        }
+        return delivered;
+    }
+
+    /**
+     * Frame serialized on the frame worker and waiting for the delivery worker, payloads are reused from a ring.
+     */
+    private static final class PendingFrame {
+        final JSObject frame = new JSObject();
+        long sequence;
+        long captureNanos;
+        long bytesOut;
+        boolean streamed;
+        boolean delta;
+    }
+
+    /**
+     * The delta encoder marks tiles as sent once encoded, a frame lost afterwards leaves the consumer behind
+     * until every tile is sent again.
+     */
+    private void onDeltaFrameLost() {
+        requestKeyframe();
     }
 
-    private final Camera.PreviewCallback mCameraPreviewCallback = new Camera.PreviewCallback() {
+    private final FrameDelivery.PayloadFactory<PendingFrame> mPendingFrameFactory = new FrameDelivery.PayloadFactory<PendingFrame>() {
         @Override
-        public void onPreviewFrame(final byte[] data, Camera camera) {
-            // Every Frame is processed in separate threads
-            // to prevent blocking of main thread to drop frames
-            renderThread = new Thread(() -> {
-                if (mPreviewing && data.length > 0) {
-                    // Get display orientation.
-                    int displayOrientation = util.getDisplayOrientation(mCameraId);
-
-                    // Creating full size image.
-                    byte[] bytes = util.getImageBytes(data, mPreviewSize.width, mPreviewSize.height, mPreviewFormat);
-                    bytes = util.getResizedAndRotatedImage(bytes, mCanvasWidth, mCanvasHeight, displayOrientation, mCameraFacing);
-
-                    // JSON output for full size image
-                    JSObject frame = new JSObject();
-                    String imageDataUri = "data:image/jpeg;base64," + Base64.encodeToString(bytes, Base64.DEFAULT);
-                    frame.put("data", imageDataUri);
-                    frame.put("width", mPreviewSize.width);
-                    frame.put("height", mPreviewSize.height);
-                    frame.put("timestamp", (new java.util.Date()).getTime());
-
-                    // Send the frame to the JavaScript layer via an event listener
-                    eventListener.onFrameUpdate(frame);
-                }
-            });
-            renderThread.start();
+        public PendingFrame create() {
+            return new PendingFrame();
         }
     };
 
-    private final TextureView.SurfaceTextureListener mSurfaceTextureListener = new TextureView.SurfaceTextureListener() {
-        public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
-            mCamera = getCameraInstance();
+    private final FrameDelivery.Handler<PendingFrame> mDeliveryHandler = new FrameDelivery.Handler<PendingFrame>() {
+        @Override
+        public boolean deliver(PendingFrame pending) {
+            try {
+                return mPreviewing && deliverFrame(pending.frame, pending.captureNanos, pending.bytesOut, pending.streamed);
+            } catch (RuntimeException e) {
+                error("Failed to deliver frame : " + e.getMessage(), e);
+                return false;
+            }
+        }
 
-            if (mCamera != null) {
+        @Override
+        public void onLost(PendingFrame pending) {
+            mFrameCredits.release(pending.sequence);
+            if (pending.delta) {
+                onDeltaFrameLost();
+            }
+        }
+    };
 
-                mTextureView.setVisibility(View.INVISIBLE);
-                mTextureView.setAlpha(0);
+    private final FrameProcessor.ResultListener mProcessorResultListener = new FrameProcessor.ResultListener() {
+        @Override
+        public void onResult(FrameProcessor processor, RawFrame frame, Map<String, Object> result) {
+            CameraPreviewListener listener = eventListener;
+            if (listener == null) {
+                return;
+            }
+            JSObject processed = new JSObject();
+            processed.put("processor", processor.getName());
+            processed.put("sequence", frame.sequence);
+            processed.put("timestamp", frame.timestamp);
+            processed.put("result", new JSONObject(result));
+            listener.onFrameProcessed(processed);
+        }
 
-                try {
-                    setPreviewParameters();
+        @Override
+        public void onError(FrameProcessor processor, RawFrame frame, RuntimeException e) {
+            error("Frame processor " + processor.getName() + " failed : " + e.getMessage(), e);
+        }
+    };
 
-                    mCamera.setPreviewTexture(surface);
-                    mCamera.setDisplayOrientation(mDisplayOrientation);
-                    mCamera.setErrorCallback(mCameraErrorCallback);
-                    mCamera.setPreviewCallback(mCameraPreviewCallback);
+    private final TextureView.SurfaceTextureListener mSurfaceTextureListener = new TextureView.SurfaceTextureListener() {
+        public void onSurfaceTextureAvailable(final SurfaceTexture surface, int width, int height) {
+            mTextureView.setVisibility(View.INVISIBLE);
+            mTextureView.setAlpha(0);
 
-                    mCamera.startPreview();
-                    mPreviewing = true;
-                    log("Camera [" + mCameraId + "] started.");
-                } catch (Exception e) {
-                    mPreviewing = false;
-                    error("Failed to init preview: " + e.getMessage(), e);
-                    stop();
+            getCameraThread().post(new Runnable() {
+                @Override
+                public void run() {
+                    startPreview(surface);
                 }
-            } else {
-                mPreviewing = false;
-                warn("Could not get camera instance.");
-            }
+            });
         }
 
         public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
             // Ignored, Camera does all the work for us
         }
 
-        public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
-            stop();
-            return true;
+        public boolean onSurfaceTextureDestroyed(final SurfaceTexture surface) {
+            getCameraThread().post(new Runnable() {
+                @Override
+                public void run() {
+                    // a surface replaced by start() is not previewed into anymore, a prewarmed camera is kept
+                    if (surface == mPreviewSurface) {
+                        mPreviewing = false;
+                        releaseCamera();
+                    }
+                    if (surface == mPendingSurface) {
+                        mPendingSurface = null;
+                    }
+                    // released once the camera stopped drawing into it
+                    surface.release();
+                }
+            });
+            return false;
         }
 
         public void onSurfaceTextureUpdated(SurfaceTexture surface) {
@@ -326,14 +1629,11 @@ public class CameraPreview {
                     break;
             }
 
+            // called on the camera thread, the preview surface is kept
             try {
-                if (start()) {
-                    log("Camera successfully restarted.");
-                } else {
-                    warn("Could not restart camera.");
-                }
+                reopenCamera();
             } catch (Exception e) {
-                error("Something happened while stopping camera", e);
+                error("Something happened while restarting camera", e);
             }
         }
     };
@@ -358,6 +1658,24 @@ public class CameraPreview {
         mCanvasHeight = 288;
         mCaptureWidth = 352;
         mCaptureHeight = 288;
+        mBufferPoolSize = 3;
+        mFrameQueueSize = 1;
+        mDropPolicy = FrameWorker.DropPolicy.DROP_OLDEST;
+        mFormat = "jpeg";
+        mQuality = 100;
+        mTransport = "bridge";
+        mStreamPort = 0;
+        mMaxFramesInFlight = 0;
+        mMode = "push";
+        mAnalysis = false;
+        mOutputs = null;
+        mMotionThreshold = 0;
+        mKeepAliveMs = 5000;
+        mDeltaTileSize = 0;
+        mDeltaThreshold = 4;
+        mKeyframeInterval = 30;
+        mParallelism = 1;
+        mDeliveryQueueSize = 0;
         mCameraFacing = Camera.CameraInfo.CAMERA_FACING_BACK;
     }
 
@@ -381,6 +1699,94 @@ public class CameraPreview {
             mFps = options.getInt(K_FPS_KEY);
         }
 
+        // preview buffer pool size, 0 lets the camera allocate every frame
+        if (options.has(K_BUFFER_POOL_SIZE_KEY)) {
+            mBufferPoolSize = Math.max(0, options.getInt(K_BUFFER_POOL_SIZE_KEY));
+        }
+
+        // frame worker queue size
+        if (options.has(K_FRAME_QUEUE_SIZE_KEY)) {
+            mFrameQueueSize = Math.max(1, options.getInt(K_FRAME_QUEUE_SIZE_KEY));
+        }
+
+        // frame worker drop policy
+        if (options.has(K_DROP_POLICY_KEY)) {
+            mDropPolicy = FrameWorker.DropPolicy.fromString(options.getString(K_DROP_POLICY_KEY));
+        }
+
+        // encoded frame format
+        if (options.has(K_FORMAT_KEY)) {
+            mFormat = options.getString(K_FORMAT_KEY);
+        }
+
+        // encoded frame quality, for lossy formats
+        if (options.has(K_QUALITY_KEY)) {
+            mQuality = options.getInt(K_QUALITY_KEY);
+        }
+
+        // frame transport, bridge or loopback stream
+        if (options.has(K_TRANSPORT_KEY)) {
+            mTransport = options.getString(K_TRANSPORT_KEY);
+        }
+
+        // loopback stream port, 0 picks a free port
+        if (options.has(K_STREAM_PORT_KEY)) {
+            mStreamPort = options.getInt(K_STREAM_PORT_KEY);
+        }
+
+        // frames delivered and not acknowledged yet, 0 disables flow control
+        if (options.has(K_MAX_FRAMES_IN_FLIGHT_KEY)) {
+            mMaxFramesInFlight = options.getInt(K_MAX_FRAMES_IN_FLIGHT_KEY);
+        }
+
+        // push encodes every frame, pull only keeps the newest one for getLatestFrame
+        if (options.has(K_MODE_KEY)) {
+            mMode = options.getString(K_MODE_KEY);
+        }
+
+        // luma analysis, frames are delivered as grayscale along brightness statistics
+        if (options.has(K_ANALYSIS_KEY)) {
+            mAnalysis = options.getBoolean(K_ANALYSIS_KEY);
+        }
+
+        // outputs, an empty list goes back to a single output
+        if (options.has(K_OUTPUTS_KEY)) {
+            JSONArray outputs = options.optJSONArray(K_OUTPUTS_KEY);
+            mOutputs = outputs != null && outputs.length() > 0 ? outputs : null;
+        }
+
+        // delta frames, null sends whole frames again
+        if (options.has(K_DELTA_KEY)) {
+            JSONObject delta = options.optJSONObject(K_DELTA_KEY);
+            mDeltaTileSize = delta != null ? Math.max(0, delta.optInt(K_TILE_SIZE_KEY, 64)) : 0;
+            if (delta != null) {
+                mDeltaThreshold = Math.max(0, delta.optInt(K_THRESHOLD_KEY, mDeltaThreshold));
+                mKeyframeInterval = Math.max(0, delta.optInt(K_KEYFRAME_INTERVAL_KEY, mKeyframeInterval));
+            }
+        }
+
+        // frames waiting for the delivery worker, 0 delivers on the frame worker
+        if (options.has(K_DELIVERY_QUEUE_SIZE_KEY)) {
+            mDeliveryQueueSize = Math.max(0, options.getInt(K_DELIVERY_QUEUE_SIZE_KEY));
+        }
+
+        // threads converting each frame, 0 uses every core
+        if (options.has(K_PARALLELISM_KEY)) {
+            int parallelism = options.getInt(K_PARALLELISM_KEY);
+            int cores = Runtime.getRuntime().availableProcessors();
+            mParallelism = parallelism <= 0 ? cores : Math.min(parallelism, cores);
+        }
+
+        // motion gate, null disables it
+        if (options.has(K_MOTION_GATE_KEY)) {
+            JSONObject motionGate = options.optJSONObject(K_MOTION_GATE_KEY);
+            mMotionThreshold = motionGate != null ? Math.max(0, motionGate.optDouble(K_THRESHOLD_KEY, 0)) : 0;
+            if (motionGate != null && motionGate.has(K_KEEP_ALIVE_KEY)) {
+                // keepAlive.seconds
+                mKeepAliveMs = Math.max(0, Math.round(motionGate.getDouble(K_KEEP_ALIVE_KEY) * 1000));
+            }
+        }
+
         // width
         if (options.has(K_WIDTH_KEY)) {
             mWidth = mCaptureWidth = mCanvasWidth = options.getInt(K_WIDTH_KEY);
@@ -414,27 +1820,103 @@ public class CameraPreview {
                 mCaptureHeight = capture.getInt(K_HEIGHT_KEY);
             }
         }
+
+        // region of interest
+        if (options.has(K_ROI_KEY)) {
+            mRegionOfInterest = parseRegion(options.optJSONObject(K_ROI_KEY));
+        }
+    }
+
+    /**
+     * @return {x, y, width, height} of a normalized region, null to use the whole frame.
+     */
+    @Nullable
+    private double[] parseRegion(@Nullable JSONObject region) {
+        if (region == null) {
+            return null;
+        }
+        double width = region.optDouble(K_WIDTH_KEY, 0);
+        double height = region.optDouble(K_HEIGHT_KEY, 0);
+        if (!(width > 0) || !(height > 0)) {
+            return null;
+        }
+        return new double[] { region.optDouble(K_X_KEY, 0), region.optDouble(K_Y_KEY, 0), width, height };
+    }
+
+    /**
+     * Crops frames to a region of the rotated output, in coordinates normalized to the unit square.
+     * The crop is part of the transform plan, so only the pixels of the region are read from the preview buffers.
+     * @param region null or an empty region to use the whole frame again
+     */
+    public void setRegionOfInterest(@Nullable JSONObject region) {
+        mRegionOfInterest = parseRegion(region);
+        getCameraThread().post(new Runnable() {
+            @Override
+            public void run() {
+                updateTransformPlan();
+            }
+        });
+    }
+
+    /**
+     * Applies new options to the running session. Only a lens or capture size change reopens the camera,
+     * flash, focus, fps and orientation are changed in place. Frame processing options apply on the next start.
+     */
+    public void reconfigure(JSONObject options) {
+        final int cameraFacing = mCameraFacing;
+        final int captureWidth = mCaptureWidth;
+        final int captureHeight = mCaptureHeight;
+        final int canvasWidth = mCanvasWidth;
+        final int canvasHeight = mCanvasHeight;
+        final int bufferPoolSize = mBufferPoolSize;
+        final boolean pullMode = isPullMode();
+        try {
+            parseOptions(options);
+        } catch (Exception e) {
+            error("Failed to parse options", e);
+        }
+        // the preview size and buffer pool follow the canvas, pool size and mode, a prewarmed camera negotiates them again on start
+        if (
+            canvasWidth != mCanvasWidth || canvasHeight != mCanvasHeight || bufferPoolSize != mBufferPoolSize || pullMode != isPullMode()
+        ) {
+            invalidateParameters();
+        }
+        getCameraThread().post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera == null) {
+                    return;
+                }
+                if (cameraFacing != mCameraFacing || captureWidth != mCaptureWidth || captureHeight != mCaptureHeight) {
+                    reopenCamera();
+                } else {
+                    applyLiveParameters();
+                }
+            }
+        });
     }
 
     public void setCameraOrientation(int orientation) {
         mOrientation = orientation;
         log("Orientation changed.");
-        if (start()) {
-            log("Camera successfully restarted.");
-        } else {
-            warn("Could not restart camera.");
-        }
+        getCameraThread().post(new Runnable() {
+            @Override
+            public void run() {
+                applyLiveParameters();
+            }
+        });
     }
 
     public void flip() {
         if (mCamera != null) {
             mCameraFacing = util.getCameraFacing(mCameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT ? "rear" : "front");
-
-            if (start()) {
-                log("Camera switched !");
-            } else {
-                warn("Could not switch camera. Could not start camera !");
-            }
+            getCameraThread().post(new Runnable() {
+                @Override
+                public void run() {
+                    reopenCamera();
+                    log("Camera switched !");
+                }
+            });
         } else {
             warn("Could not switch camera. No camera available !");
         }
@@ -443,19 +1925,101 @@ public class CameraPreview {
     public void setFlashMode(boolean isFlashModeOn) {
         if (mCamera != null) {
             mFlashMode = util.getFlashMode(isFlashModeOn);
-
-            if (start()) {
-                log("Flash mode applied !");
-            } else {
-                warn("Could not set flash mode. Could not start camera !");
-            }
+            getCameraThread().post(new Runnable() {
+                @Override
+                public void run() {
+                    applyLiveParameters();
+                    log("Flash mode applied !");
+                }
+            });
         } else {
             warn("Could not set flash mode. No camera available !");
         }
     }
 
+    /**
+     * @return flash modes of the current camera, empty while it was never opened and is not open yet.
+     */
     public JSONArray getSupportedFlashModes() {
-        Camera.Parameters params = mCamera.getParameters();
-        return util.getSupportedFlashModes(params);
+        CameraCapabilities capabilities = util.getCapabilityCache().get(mCameraId);
+        Camera camera = mCamera;
+        if (capabilities == null && camera != null) {
+            capabilities = util.getCapabilityCache().get(mCameraId, camera.getParameters());
+        }
+        return capabilities != null ? util.getSupportedFlashModes(capabilities) : new JSONArray();
+    }
+
+    public interface CapabilitiesListener {
+        void onCapabilities(JSObject capabilities);
+    }
+
+    /**
+     * Lists the capabilities of every camera. Cameras never opened before are opened once on the camera thread,
+     * unless the camera is in use, and answered from the cache from then on.
+     */
+    public void getCapabilities(final CapabilitiesListener listener) {
+        getCameraThread().post(new Runnable() {
+            @Override
+            public void run() {
+                CapabilityCache capabilityCache = util.getCapabilityCache();
+                JSONArray cameras = new JSONArray();
+                for (int cameraId = 0; cameraId < capabilityCache.getCameraCount(); cameraId++) {
+                    CameraCapabilities capabilities = capabilityCache.get(cameraId);
+                    if (capabilities == null && mCamera == null && !mOpening) {
+                        capabilities = queryCapabilities(cameraId);
+                    } else if (capabilities == null && mCamera != null && mCameraId == cameraId) {
+                        capabilities = capabilityCache.get(cameraId, mCamera.getParameters());
+                    }
+                    if (capabilities != null) {
+                        cameras.put(toJSObject(capabilities));
+                    }
+                }
+                JSObject result = new JSObject();
+                result.put("cameras", cameras);
+                listener.onCapabilities(result);
+            }
+        });
+    }
+
+    @Nullable
+    private CameraCapabilities queryCapabilities(int cameraId) {
+        Camera camera = null;
+        try {
+            camera = Camera.open(cameraId);
+            return util.getCapabilityCache().get(cameraId, camera.getParameters());
+        } catch (RuntimeException e) {
+            warn("Could not read capabilities of camera [" + cameraId + "] : " + e.getMessage());
+            return null;
+        } finally {
+            if (camera != null) {
+                camera.release();
+            }
+        }
+    }
+
+    private JSObject toJSObject(CameraCapabilities capabilities) {
+        JSONArray previewSizes = new JSONArray();
+        for (int[] size : capabilities.previewSizes) {
+            JSObject previewSize = new JSObject();
+            previewSize.put("width", size[0]);
+            previewSize.put("height", size[1]);
+            previewSizes.put(previewSize);
+        }
+        JSONArray fpsRanges = new JSONArray();
+        for (int[] range : capabilities.fpsRanges) {
+            JSObject fpsRange = new JSObject();
+            fpsRange.put("min", range[0] / 1000.0);
+            fpsRange.put("max", range[1] / 1000.0);
+            fpsRanges.put(fpsRange);
+        }
+        JSObject camera = new JSObject();
+        camera.put("id", capabilities.cameraId);
+        camera.put("facing", capabilities.facing == Camera.CameraInfo.CAMERA_FACING_FRONT ? "front" : "rear");
+        camera.put("orientation", capabilities.orientation);
+        camera.put("previewSizes", previewSizes);
+        camera.put("fpsRanges", fpsRanges);
+        camera.put("focusModes", new JSONArray(capabilities.focusModes));
+        camera.put("flashModes", new JSONArray(capabilities.flashModes));
+        return camera;
     }
 }
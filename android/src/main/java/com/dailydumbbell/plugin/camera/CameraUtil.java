@@ -2,27 +2,36 @@ package com.dailydumbbell.plugin.camera;
 
 import android.app.Activity;
 import android.content.res.Configuration;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
+import android.graphics.ImageFormat;
 import android.hardware.Camera;
 import android.view.Surface;
 
 import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 public class CameraUtil {
+    private static final String TAG = "CameraUtil";
+    // captures are left to the app for a day, then deleted with the next capture
+    public static final long CAPTURE_MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+
     private Activity mActivity = null;
+    private final CapabilityCache mCapabilityCache;
 
     public CameraUtil(Activity activity) {
         mActivity = activity;
+        mCapabilityCache = new CapabilityCache(activity);
+    }
+
+    public CapabilityCache getCapabilityCache() {
+        return mCapabilityCache;
     }
 
     public int getCurrentOrientation() {
@@ -44,49 +53,64 @@ public class CameraUtil {
         }
     }
 
-    public Camera.Size getOptimalPreviewSize(Camera.Parameters parameters, int mCaptureWidth, int mCaptureHeight) {
-        List<Camera.Size> sizes = parameters.getSupportedPreviewSizes();
-        final double ASPECT_TOLERANCE = 0.1;
-        double targetRatio = (double) mCaptureWidth / mCaptureHeight;
-        if (sizes == null) return null;
-
-        Camera.Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
+    /**
+     * @return the optimal {width, height} preview size, preferring exact 2x or 4x multiples of the canvas,
+     * null when the camera reports none.
+     */
+    public int[] getOptimalPreviewSize(CameraCapabilities capabilities, int mCaptureWidth, int mCaptureHeight, int mCanvasWidth, int mCanvasHeight) {
+        int index = PreviewGeometry.getOptimalPreviewSize(capabilities.previewSizes, mCaptureWidth, mCaptureHeight, mCanvasWidth, mCanvasHeight);
+        return index >= 0 ? capabilities.previewSizes.get(index) : null;
+    }
 
-        int targetHeight = mCaptureHeight;
+    /**
+     * @return the largest {width, height} picture size of the preview aspect ratio, null when the camera reports none.
+     */
+    public int[] getLargestPictureSize(Camera.Parameters parameters, int previewWidth, int previewHeight) {
+        List<Camera.Size> supported = parameters.getSupportedPictureSizes();
+        if (supported == null) {
+            return null;
+        }
+        List<int[]> sizes = new ArrayList<>();
+        for (Camera.Size size : supported) {
+            sizes.add(new int[] { size.width, size.height });
+        }
+        int index = PreviewGeometry.getLargestPictureSize(sizes, previewWidth, previewHeight);
+        return index >= 0 ? sizes.get(index) : null;
+    }
 
-        // Try to find an size match aspect ratio and size
-        for (Camera.Size size : sizes) {
-            double ratio = (double) size.width / size.height;
-            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - targetHeight) < minDiff) {
-                optimalSize = size;
-                minDiff = Math.abs(size.height - targetHeight);
-            }
+    /**
+     * Creates a new empty file with a unique name in the captures directory of the app cache.
+     * Captures older than {@link #CAPTURE_MAX_AGE_MS} are deleted meanwhile, the app copies the ones it keeps.
+     * @throws IOException when the directory or the file cannot be created
+     */
+    public File createCaptureFile(String extension) throws IOException {
+        File directory = new File(mActivity.getCacheDir(), "captures");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory.getPath());
         }
+        deleteCapturesOlderThan(directory, System.currentTimeMillis() - CAPTURE_MAX_AGE_MS);
+        return File.createTempFile("capture-", "." + extension, directory);
+    }
 
-        // Cannot find the one match the aspect ratio, ignore the requirement
-        if (optimalSize == null) {
-            minDiff = Double.MAX_VALUE;
-            for (Camera.Size size : sizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
-                }
+    private void deleteCapturesOlderThan(File directory, long modifiedBefore) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile() && file.lastModified() < modifiedBefore && !file.delete()) {
+                Logger.warn(TAG, "Could not delete old capture " + file.getPath());
             }
         }
-        return optimalSize;
     }
 
     public int getCameraRotation(int mCameraId) {
         int degrees = getDisplayRotation();
 
-        Camera.CameraInfo info = new Camera.CameraInfo();
-        Camera.getCameraInfo(mCameraId, info);
-        int cameraRotationOffset = info.orientation;
+        int cameraRotationOffset = mCapabilityCache.getOrientation(mCameraId);
 
         int cameraRotation;
-        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+        if (mCapabilityCache.getFacing(mCameraId) == Camera.CameraInfo.CAMERA_FACING_FRONT) {
             cameraRotation = (360 + cameraRotationOffset + degrees) % 360;
         } else {
             cameraRotation = (360 + cameraRotationOffset - degrees) % 360;
@@ -123,12 +147,10 @@ public class CameraUtil {
     public int getDisplayOrientation(int mCameraId) {
         int degrees = getDisplayRotation();
 
-        Camera.CameraInfo info = new Camera.CameraInfo();
-        Camera.getCameraInfo(mCameraId, info);
-        int cameraRotationOffset = info.orientation;
+        int cameraRotationOffset = mCapabilityCache.getOrientation(mCameraId);
 
         int displayOrientation;
-        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+        if (mCapabilityCache.getFacing(mCameraId) == Camera.CameraInfo.CAMERA_FACING_FRONT) {
             displayOrientation = (cameraRotationOffset + degrees) % 360;
             displayOrientation = (360 - displayOrientation) % 360;
         } else {
@@ -138,28 +160,14 @@ public class CameraUtil {
         return displayOrientation;
     }
 
-    public int[] getOptimalFrameRate(Camera.Parameters params, int mFps) {
-        List<int[]> supportedRanges = params.getSupportedPreviewFpsRange();
-
-        int[] optimalFpsRange = supportedRanges.get(0); // Default to the first range
-        int closestDifference = Integer.MAX_VALUE; // Initialize with the maximum possible difference
-
-        for (int[] range : supportedRanges) {
-            // Prioritize higher minimum frame rate first
-            if (range[0] >= optimalFpsRange[0]) {
-                int currentDifference = Math.abs(range[1] - (mFps * 1000)); // Compare max FPS to desired value
-                if (range[0] > optimalFpsRange[0] || currentDifference < closestDifference) {
-                    closestDifference = currentDifference;
-                    optimalFpsRange = range;
-                }
-            }
-        }
-
-        return optimalFpsRange;
+    public int[] getOptimalFrameRate(CameraCapabilities capabilities, int mFps) {
+        if (capabilities.fpsRanges.isEmpty()) return null;
+        return PreviewGeometry.getOptimalFrameRate(capabilities.fpsRanges, mFps);
     }
 
-    public String getOptimalFocusMode(Camera.Parameters params) {
-        List<String> focusModes = params.getSupportedFocusModes();
+    public String getOptimalFocusMode(CameraCapabilities capabilities) {
+        List<String> focusModes = capabilities.focusModes;
+        if (focusModes.isEmpty()) return null;
 
         String result;
 
@@ -168,15 +176,15 @@ public class CameraUtil {
         } else if (focusModes.contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
             result = Camera.Parameters.FOCUS_MODE_AUTO;
         } else {
-            result = params.getSupportedFocusModes().get(0);
+            result = focusModes.get(0);
         }
 
         return result;
     }
 
-    public String getOptimalFlashMode(Camera.Parameters parameters, String mFlashMode) {
+    public String getOptimalFlashMode(CameraCapabilities capabilities, String mFlashMode) {
         if (mFlashMode != null) {
-            List<String> supportedFlashModes = parameters.getSupportedFlashModes();
+            List<String> supportedFlashModes = capabilities.flashModes;
             if (supportedFlashModes != null) {
                 for (String str : supportedFlashModes) {
                     if (str.trim().contains(mFlashMode))
@@ -191,131 +199,18 @@ public class CameraUtil {
         }
     }
 
-    public byte[] getImageBytes(byte[] byteArray, int width, int height, int mPreviewFormat) {
-        if (byteArray.length > 0) {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            // The second parameter is the actual image format
-            YuvImage yuvImage = new YuvImage(byteArray, mPreviewFormat, width, height, null);
-            // width and height define the size of the bitmap filled with the preview image
-            yuvImage.compressToJpeg(new Rect(0, 0, width, height), 100, out);
-            // returns the jpeg as bytes array
-            return out.toByteArray();
-        } else {
-            return byteArray;
-        }
-    }
-
-    public byte[] getResizedAndRotatedImage(
-            byte[] byteArray,
-            int targetWidth,
-            int targetHeight,
-            int angle,
-            int mCameraFacing
-    ) {
-        if (byteArray.length > 0) {
-            // Sets bitmap factory options
-            BitmapFactory.Options bOptions = new BitmapFactory.Options();
-            // Set inJustDecodeBounds=true to check dimensions
-            bOptions.inJustDecodeBounds = true;
-            // Decode unscaled unrotated bitmap boundaries only
-            BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length, bOptions);
-
-            if (targetWidth > 0 && targetHeight > 0) {
-                // Calculate aspect ratio
-                int[] widthHeight = calculateAspectRatio(bOptions.outWidth , bOptions.outHeight, targetWidth, targetHeight);
-
-                int width = widthHeight[0];
-                int height = widthHeight[1];
-
-                bOptions.inSampleSize = 1;
-                // Adjust inSampleSize
-                if (bOptions.outHeight > height || bOptions.outWidth > width) {
-                    final int halfOutHeight = bOptions.outHeight / 2;
-                    final int halfOutWidth = bOptions.outWidth / 2;
-
-                    while ((halfOutHeight / bOptions.inSampleSize) >= height
-                            && (halfOutWidth / bOptions.inSampleSize) >= width) {
-                        bOptions.inSampleSize *= 2;
-                    }
-                }
-                // Set inJustDecodeBounds=false to get all pixels
-                bOptions.inJustDecodeBounds = false;
-                // Decode unscaled unrotated bitmap
-                Bitmap bitmap = BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length, bOptions);
-                // Create scaled bitmap
-                bitmap = Bitmap.createScaledBitmap(bitmap, width, height, true);
-
-                if (angle != 0 || mCameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-                    final Matrix matrix = new Matrix();
-
-                    // Mirroring ?
-                    if (mCameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-                        matrix.preScale(-1.0f, 1.0f);
-                    }
-                    // Rotation ?
-                    if (angle != 0) {
-                        // Rotation
-                        matrix.postRotate(angle);
-                    }
-
-                    // Create rotated bitmap
-                    bitmap = Bitmap.createBitmap(bitmap, 0, 0, width, height, matrix, false);
-                }
-
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, byteArrayOutputStream);
-
-                // Recycling bitmap
-                bitmap.recycle();
-
-                return byteArrayOutputStream.toByteArray();
-            } else {
-                return byteArray;
-            }
-        } else {
-            return byteArray;
+    public int getPreviewBufferSize(int width, int height, int mPreviewFormat) {
+        if (mPreviewFormat == ImageFormat.YV12) {
+            // YV12 planes are aligned on 16 bytes
+            int yStride = (int) Math.ceil(width / 16.0) * 16;
+            int uvStride = (int) Math.ceil((yStride / 2) / 16.0) * 16;
+            return yStride * height + uvStride * (height / 2) * 2;
         }
+        return width * height * ImageFormat.getBitsPerPixel(mPreviewFormat) / 8;
     }
 
     public int[] calculateAspectRatio(int origWidth, int origHeight, int targetWidth, int targetHeight) {
-        int newWidth = targetWidth;
-        int newHeight = targetHeight;
-
-        // If no new width or height were specified return the original bitmap
-        if (newWidth <= 0 && newHeight <= 0) {
-            newWidth = origWidth;
-            newHeight = origHeight;
-        }
-        // Only the width was specified
-        else if (newWidth > 0 && newHeight <= 0) {
-            newHeight = (int) (newWidth / (double) origWidth * origHeight);
-        }
-        // only the height was specified
-        else if (newWidth <= 0 && newHeight > 0) {
-            newWidth = (int) (newHeight / (double) origHeight * origWidth);
-        }
-        // If the user specified both a positive width and height
-        // (potentially different aspect ratio) then the width or height is
-        // scaled so that the image fits while maintaining aspect ratio.
-        // Alternatively, the specified width and height could have been
-        // kept and Bitmap.SCALE_TO_FIT specified when scaling, but this
-        // would result in whitespace in the new image.
-        else {
-            double newRatio = newWidth / (double) newHeight;
-            double origRatio = origWidth / (double) origHeight;
-
-            if (origRatio > newRatio) {
-                newHeight = (newWidth * origHeight) / origWidth;
-            } else if (origRatio < newRatio) {
-                newWidth = (newHeight * origWidth) / origHeight;
-            }
-        }
-
-        int[] widthHeight = new int[2];
-        widthHeight[0] = newWidth;
-        widthHeight[1] = newHeight;
-
-        return widthHeight;
+        return PreviewGeometry.calculateAspectRatio(origWidth, origHeight, targetWidth, targetHeight);
     }
 
     public String getFlashMode(boolean isFlashModeOn) {
@@ -326,6 +221,32 @@ public class CameraUtil {
         }
     }
 
+    public FrameEncoder getFrameEncoder(String format, int quality) {
+        return getFrameEncoder(format, quality, false);
+    }
+
+    /**
+     * @param analysis whether frames are analyzed, which only produces grayscale frames along their luma statistics
+     */
+    public FrameEncoder getFrameEncoder(String format, int quality, boolean analysis) {
+        if (analysis) {
+            return new GrayFrameEncoder(true);
+        }
+        quality = Math.max(0, Math.min(100, quality));
+        switch (format) {
+            case "webp":
+                return new WebpFrameEncoder(quality);
+            case "rgba":
+                return new RgbaFrameEncoder();
+            case "rgb565":
+                return new Rgb565FrameEncoder();
+            case "gray":
+                return new GrayFrameEncoder();
+            default:
+                return new JpegFrameEncoder(quality);
+        }
+    }
+
     public int getCameraFacing(String option) {
         if ("front".equals(option)) {
             return Camera.CameraInfo.CAMERA_FACING_FRONT;
@@ -334,9 +255,9 @@ public class CameraUtil {
         }
     }
 
-    public JSONArray getSupportedFlashModes(Camera.Parameters parameters) {
+    public JSONArray getSupportedFlashModes(CameraCapabilities capabilities) {
         List<String> supportedFlashModes;
-        supportedFlashModes = parameters.getSupportedFlashModes();
+        supportedFlashModes = capabilities.flashModes;
         JSONArray jsonFlashModes = new JSONArray();
 
         if (supportedFlashModes != null) {
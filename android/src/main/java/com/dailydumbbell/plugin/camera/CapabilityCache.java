@@ -0,0 +1,162 @@
+package com.dailydumbbell.plugin.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Camera;
+import android.os.Build;
+
+import com.getcapacitor.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Camera facings, orientations and capabilities, kept in memory and in the app preferences.
+ * Entries are keyed by camera id and dropped whenever the device fingerprint changes, which an OS update does,
+ * so the hardware is only queried on the first launch.
+ */
+public class CapabilityCache {
+    private static final String TAG = "CapabilityCache";
+    private static final String PREFERENCES = "CameraCapabilities";
+    private static final String K_FINGERPRINT_KEY = "fingerprint";
+    private static final String K_CAMERAS_KEY = "cameras";
+    private static final String K_CAMERA_KEY_PREFIX = "camera.";
+
+    private final Context mContext;
+    private final String mFingerprint;
+    // opened on first use rather than by the UI thread creating the cache
+    private SharedPreferences mPreferences;
+    private boolean mFingerprintChecked = false;
+    private final Map<Integer, CameraCapabilities> mCapabilities = new HashMap<>();
+    // {facing, orientation} per camera id
+    private int[][] mCameras = null;
+
+    public CapabilityCache(Context context) {
+        this(context, null, Build.FINGERPRINT);
+    }
+
+    CapabilityCache(Context context, SharedPreferences preferences, String fingerprint) {
+        mContext = context;
+        mPreferences = preferences;
+        mFingerprint = fingerprint;
+    }
+
+    public synchronized int getCameraCount() {
+        return getCameras().length;
+    }
+
+    /**
+     * @return {@link Camera.CameraInfo#facing} of the camera, -1 when there is no such camera.
+     */
+    public synchronized int getFacing(int cameraId) {
+        int[][] cameras = getCameras();
+        return cameraId >= 0 && cameraId < cameras.length ? cameras[cameraId][0] : -1;
+    }
+
+    /**
+     * @return {@link Camera.CameraInfo#orientation} of the camera, 0 when there is no such camera.
+     */
+    public synchronized int getOrientation(int cameraId) {
+        int[][] cameras = getCameras();
+        return cameraId >= 0 && cameraId < cameras.length ? cameras[cameraId][1] : 0;
+    }
+
+    /**
+     * @return cached capabilities of the camera, null until read from an opened camera once.
+     */
+    public synchronized CameraCapabilities get(int cameraId) {
+        CameraCapabilities capabilities = mCapabilities.get(cameraId);
+        if (capabilities == null) {
+            String json = getPreferences().getString(K_CAMERA_KEY_PREFIX + cameraId, null);
+            if (json != null) {
+                try {
+                    capabilities = CameraCapabilities.fromJSON(new JSONObject(json));
+                    mCapabilities.put(cameraId, capabilities);
+                } catch (JSONException e) {
+                    Logger.warn(TAG, "Dropping unreadable capabilities of camera [" + cameraId + "] : " + e.getMessage());
+                }
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * @return capabilities of the camera, read from its parameters when not cached yet.
+     */
+    public synchronized CameraCapabilities get(int cameraId, Camera.Parameters parameters) {
+        CameraCapabilities capabilities = get(cameraId);
+        if (capabilities == null) {
+            capabilities = CameraCapabilities.fromParameters(cameraId, getFacing(cameraId), getOrientation(cameraId), parameters);
+            put(capabilities);
+        }
+        return capabilities;
+    }
+
+    public synchronized void put(CameraCapabilities capabilities) {
+        mCapabilities.put(capabilities.cameraId, capabilities);
+        try {
+            getPreferences().edit().putString(K_CAMERA_KEY_PREFIX + capabilities.cameraId, capabilities.toJSON().toString()).apply();
+        } catch (JSONException e) {
+            Logger.warn(TAG, "Could not persist capabilities of camera [" + capabilities.cameraId + "] : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the preferences on first use, dropping every entry written by another build.
+     */
+    private SharedPreferences getPreferences() {
+        if (mPreferences == null) {
+            mPreferences = mContext.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        }
+        if (!mFingerprintChecked) {
+            mFingerprintChecked = true;
+            if (!mFingerprint.equals(mPreferences.getString(K_FINGERPRINT_KEY, null))) {
+                mPreferences.edit().clear().putString(K_FINGERPRINT_KEY, mFingerprint).apply();
+            }
+        }
+        return mPreferences;
+    }
+
+    private int[][] getCameras() {
+        if (mCameras == null) {
+            mCameras = loadCameras();
+        }
+        if (mCameras == null) {
+            int count = Camera.getNumberOfCameras();
+            int[][] cameras = new int[count][];
+            JSONArray json = new JSONArray();
+            Camera.CameraInfo info = new Camera.CameraInfo();
+            for (int cameraId = 0; cameraId < count; cameraId++) {
+                Camera.getCameraInfo(cameraId, info);
+                cameras[cameraId] = new int[] { info.facing, info.orientation };
+                json.put(info.facing);
+                json.put(info.orientation);
+            }
+            mCameras = cameras;
+            getPreferences().edit().putString(K_CAMERAS_KEY, json.toString()).apply();
+        }
+        return mCameras;
+    }
+
+    private int[][] loadCameras() {
+        String json = getPreferences().getString(K_CAMERAS_KEY, null);
+        if (json == null) {
+            return null;
+        }
+        try {
+            JSONArray array = new JSONArray(json);
+            int[][] cameras = new int[array.length() / 2][];
+            for (int i = 0; i < cameras.length; i++) {
+                cameras[i] = new int[] { array.getInt(2 * i), array.getInt(2 * i + 1) };
+            }
+            return cameras;
+        } catch (JSONException e) {
+            Logger.warn(TAG, "Dropping unreadable camera list : " + e.getMessage());
+            return null;
+        }
+    }
+}
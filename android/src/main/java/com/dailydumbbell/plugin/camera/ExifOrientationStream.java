@@ -0,0 +1,75 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes a JPEG stream through, adding an Exif segment holding only the orientation tag right after the start of image marker,
+ * so viewers rotate and mirror the picture instead of its pixels being transformed before encoding.
+ * Bytes are written through as they come, nothing but the segment is buffered.
+ */
+public class ExifOrientationStream extends FilterOutputStream {
+    public static final int ORIENTATION_NORMAL = 1;
+
+    // Exif identifier, big endian TIFF header, IFD0 at offset 8 with a single SHORT entry for tag 0x0112 and no next IFD
+    private static final byte[] SEGMENT = {
+        (byte) 0xff, (byte) 0xe1, 0, 34,
+        'E', 'x', 'i', 'f', 0, 0,
+        'M', 'M', 0, 42, 0, 0, 0, 8,
+        0, 1,
+        0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 0, 0, 0,
+        0, 0, 0, 0,
+    };
+    private static final int ORIENTATION_OFFSET = 29;
+
+    private final byte[] mSegment = SEGMENT.clone();
+    // bytes of the start of image marker seen so far, the segment follows once both are written
+    private int mHeaderBytes = 0;
+
+    /**
+     * @param orientation Exif orientation from 1 to 8, see {@link #getOrientation(int, boolean)}
+     */
+    public ExifOrientationStream(OutputStream out, int orientation) {
+        super(out);
+        mSegment[ORIENTATION_OFFSET] = (byte) orientation;
+    }
+
+    /**
+     * Maps a transform of this plugin, mirroring before the clockwise rotation, to the Exif orientation displaying
+     * an untransformed picture the same way.
+     * @param rotation clockwise rotation, one of 0, 90, 180 or 270
+     */
+    public static int getOrientation(int rotation, boolean mirror) {
+        switch (rotation) {
+            case 90:
+                return mirror ? 7 : 6;
+            case 180:
+                return mirror ? 4 : 3;
+            case 270:
+                return mirror ? 5 : 8;
+            default:
+                return mirror ? 2 : ORIENTATION_NORMAL;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (mHeaderBytes < 2 && ++mHeaderBytes == 2) {
+            out.write(mSegment);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // the marker is split from the rest of the first write, later writes go through as they are
+        while (mHeaderBytes < 2 && len > 0) {
+            write(b[off++]);
+            len--;
+        }
+        if (len > 0) {
+            out.write(b, off, len);
+        }
+    }
+}
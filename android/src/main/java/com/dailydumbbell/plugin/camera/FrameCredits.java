@@ -0,0 +1,82 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Bounds the number of frames sent to the consumer and not acknowledged yet.
+ * Acknowledgements are cumulative, acknowledging a sequence number releases every frame up to it.
+ * Frames left unacknowledged for too long are expired so a consumer that went away cannot stall the preview.
+ */
+public class FrameCredits {
+    private final int mMaxInFlight;
+    private final long mTimeoutMs;
+    private final ArrayDeque<long[]> mInFlight = new ArrayDeque<>();
+    private long mSkippedCount = 0;
+
+    /**
+     * @param maxInFlight frames allowed in flight, 0 disables flow control
+     * @param timeoutMs delay after which an unacknowledged frame gives its credit back
+     */
+    public FrameCredits(int maxInFlight, long timeoutMs) {
+        mMaxInFlight = Math.max(0, maxInFlight);
+        mTimeoutMs = timeoutMs;
+    }
+
+    public boolean isEnabled() {
+        return mMaxInFlight > 0;
+    }
+
+    /**
+     * Takes a credit for the given frame.
+     * @return false when no credit is left and the frame should be skipped before any work is done.
+     */
+    public synchronized boolean tryAcquire(long sequence, long nowMs) {
+        if (mMaxInFlight == 0) {
+            return true;
+        }
+        while (!mInFlight.isEmpty() && nowMs - mInFlight.peekFirst()[1] > mTimeoutMs) {
+            mInFlight.pollFirst();
+        }
+        if (mInFlight.size() >= mMaxInFlight) {
+            mSkippedCount++;
+            return false;
+        }
+        mInFlight.offerLast(new long[] { sequence, nowMs });
+        return true;
+    }
+
+    /**
+     * Gives back the credit of a frame that was never delivered.
+     */
+    public synchronized void release(long sequence) {
+        Iterator<long[]> frames = mInFlight.iterator();
+        while (frames.hasNext()) {
+            if (frames.next()[0] == sequence) {
+                frames.remove();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Acknowledges every frame up to and including {@code sequence}.
+     */
+    public synchronized void acknowledge(long sequence) {
+        while (!mInFlight.isEmpty() && mInFlight.peekFirst()[0] <= sequence) {
+            mInFlight.pollFirst();
+        }
+    }
+
+    public synchronized void reset() {
+        mInFlight.clear();
+    }
+
+    public synchronized int getInFlightCount() {
+        return mInFlight.size();
+    }
+
+    public synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+}
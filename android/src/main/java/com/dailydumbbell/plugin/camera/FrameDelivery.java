@@ -0,0 +1,96 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Delivers serialized frames in capture order on their own {@link FrameWorker}, so the frame worker moves on to the next frame.
+ * Payloads are reused from a ring of {@code queueSize + 2}: one being delivered, up to {@code queueSize} queued
+ * and the one being filled. The worker blocks the producer while its queue is full,
+ * so a payload is never handed out again before its delivery is done.
+ */
+public class FrameDelivery<P> {
+
+    public interface PayloadFactory<P> {
+        P create();
+    }
+
+    /**
+     * Handlers must not throw, like {@link FrameWorker.FrameHandler}.
+     */
+    public interface Handler<P> {
+        /**
+         * Called on the delivery worker.
+         * @return false when the frame did not reach the consumer
+         */
+        boolean deliver(P payload);
+
+        /**
+         * Called for every payload that did not reach the consumer, whether delivery failed or the frame
+         * was dropped on stop. The payload can be reused once this returns.
+         */
+        void onLost(P payload);
+    }
+
+    private final Object[] mPayloads;
+    private final Handler<P> mHandler;
+    private final FrameWorker<P> mWorker;
+    private int mNextPayload = 0;
+
+    /**
+     * @param queueSize payloads waiting for delivery at most, at least 1
+     */
+    public FrameDelivery(String name, int queueSize, PayloadFactory<P> factory, Handler<P> handler) {
+        int capacity = Math.max(1, queueSize);
+        mPayloads = new Object[capacity + 2];
+        for (int i = 0; i < mPayloads.length; i++) {
+            mPayloads[i] = factory.create();
+        }
+        mHandler = handler;
+        mWorker = new FrameWorker<>(name, capacity, FrameWorker.DropPolicy.BLOCK, mWorkerHandler);
+    }
+
+    public void start() {
+        mWorker.start();
+    }
+
+    /**
+     * Stops after the frame being delivered, queued frames are lost.
+     */
+    public void stop() {
+        mWorker.stop();
+    }
+
+    public int getRingSize() {
+        return mPayloads.length;
+    }
+
+    /**
+     * @return the next payload of the ring to fill, only called from the producing thread.
+     */
+    @SuppressWarnings("unchecked")
+    public P next() {
+        P payload = (P) mPayloads[mNextPayload];
+        mNextPayload = (mNextPayload + 1) % mPayloads.length;
+        return payload;
+    }
+
+    /**
+     * Queues a filled payload, waiting for room in the queue.
+     * @return false when the delivery was stopped, the payload was then lost
+     */
+    public boolean submit(P payload) {
+        return mWorker.submit(payload);
+    }
+
+    private final FrameWorker.FrameHandler<P> mWorkerHandler = new FrameWorker.FrameHandler<P>() {
+        @Override
+        public void onFrame(P payload) {
+            if (!mHandler.deliver(payload)) {
+                mHandler.onLost(payload);
+            }
+        }
+
+        @Override
+        public void onDropped(P payload) {
+            mHandler.onLost(payload);
+        }
+    };
+}
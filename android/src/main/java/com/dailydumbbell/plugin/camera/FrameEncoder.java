@@ -0,0 +1,22 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Encodes transformed preview frames.
+ * Encoders keep their output stream between frames, the returned stream is only valid until the next call.
+ */
+public interface FrameEncoder {
+    /**
+     * @return the pixel format reported with every frame, e.g. {@code jpeg} or {@code rgba}.
+     */
+    String getFormat();
+
+    /**
+     * @return the MIME type of the encoded data.
+     */
+    String getMimeType();
+
+    /**
+     * Transforms and encodes an NV21 source frame using the configured transformer.
+     */
+    FrameOutputStream encode(FrameTransformer transformer, byte[] source);
+}
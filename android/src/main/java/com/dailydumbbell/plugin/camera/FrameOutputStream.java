@@ -0,0 +1,29 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Byte stream reused from frame to frame, its buffer is read in place instead of being copied.
+ */
+public class FrameOutputStream extends ByteArrayOutputStream {
+
+    public FrameOutputStream() {
+        super(64 * 1024);
+    }
+
+    public synchronized byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * Resizes the stream content to {@code length} bytes so it can be filled directly.
+     * @return the buffer to write into, from index 0.
+     */
+    public synchronized byte[] setSize(int length) {
+        if (buf.length < length) {
+            buf = new byte[length];
+        }
+        count = length;
+        return buf;
+    }
+}
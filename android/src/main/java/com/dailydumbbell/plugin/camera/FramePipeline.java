@@ -0,0 +1,252 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Push pipeline transforming and encoding raw frames on a {@link FrameWorker}, whatever {@link FrameSource} they come from.
+ * Frames over the credit budget, or that the {@link MotionGate} finds unchanged, are skipped before any work is done on them, encoded frames are handed
+ * to a {@link FrameSink} which serializes and delivers them. Every frame is released once done.
+ * With a {@link FramePyramid}, every output due for a frame is handed to the sink in turn.
+ * Registered {@link FrameProcessor}s see every raw frame the worker takes, before it is skipped or encoded.
+ */
+public class FramePipeline implements FrameSource.FrameListener {
+
+    public interface Configurator {
+        /**
+         * Configures the transform of the given frame, called on the frame worker before every frame.
+         */
+        void configure(FrameTransformer transformer, RawFrame frame);
+    }
+
+    public interface FrameSink {
+        /**
+         * @param output index of the output, always 0 without a pyramid
+         * @param encoded only valid during the call
+         * @return false when the frame could not be delivered.
+         */
+        boolean onFrame(RawFrame frame, int output, FrameTransformer transformer, FrameEncoder encoder, FrameOutputStream encoded);
+
+        /**
+         * Called when processing a frame failed, the frame is counted as dropped.
+         */
+        void onError(RawFrame frame, RuntimeException e);
+    }
+
+    private final FrameTransformer mTransformer = new FrameTransformer();
+    private final FrameEncoder mEncoder;
+    private final FramePyramid mPyramid;
+    private final FrameCredits mCredits;
+    private final FrameStats mStats;
+    private final Configurator mConfigurator;
+    private final FrameSink mSink;
+    private final FrameWorker<RawFrame> mWorker;
+    private MotionGate mMotionGate = new MotionGate(0, 0);
+    private List<FrameProcessor> mFrameProcessors = Collections.emptyList();
+    private FrameProcessor.ResultListener mProcessorListener = null;
+
+    public FramePipeline(
+        String name,
+        int queueSize,
+        FrameWorker.DropPolicy dropPolicy,
+        FrameEncoder encoder,
+        FrameCredits credits,
+        FrameStats stats,
+        Configurator configurator,
+        FrameSink sink
+    ) {
+        this(name, queueSize, dropPolicy, encoder, null, credits, stats, configurator, sink);
+    }
+
+    /**
+     * Produces every output of the pyramid from each frame, instead of a single encoded frame.
+     */
+    public FramePipeline(
+        String name,
+        int queueSize,
+        FrameWorker.DropPolicy dropPolicy,
+        FramePyramid pyramid,
+        FrameCredits credits,
+        FrameStats stats,
+        Configurator configurator,
+        FrameSink sink
+    ) {
+        this(name, queueSize, dropPolicy, null, pyramid, credits, stats, configurator, sink);
+    }
+
+    private FramePipeline(
+        String name,
+        int queueSize,
+        FrameWorker.DropPolicy dropPolicy,
+        FrameEncoder encoder,
+        FramePyramid pyramid,
+        FrameCredits credits,
+        FrameStats stats,
+        Configurator configurator,
+        FrameSink sink
+    ) {
+        mEncoder = encoder;
+        mPyramid = pyramid;
+        mCredits = credits;
+        mStats = stats;
+        mConfigurator = configurator;
+        mSink = sink;
+        mWorker = new FrameWorker<>(name, queueSize, dropPolicy, mFrameHandler);
+    }
+
+    public void start() {
+        mWorker.start();
+    }
+
+    /**
+     * Stops after the frame in progress, queued frames are dropped.
+     */
+    public void stop() {
+        mWorker.stop();
+    }
+
+    @Override
+    public void onFrame(RawFrame frame) {
+        mStats.onReceived();
+        mWorker.submit(frame);
+    }
+
+    /**
+     * Sets the gate skipping unchanged frames, before the pipeline is started.
+     */
+    public void setMotionGate(MotionGate motionGate) {
+        mMotionGate = motionGate;
+    }
+
+    public MotionGate getMotionGate() {
+        return mMotionGate;
+    }
+
+    /**
+     * Converts frames in bands of rows on the given threads, before the pipeline is started.
+     */
+    public void setStripes(FrameStripes stripes) {
+        mTransformer.setStripes(stripes);
+        if (mPyramid != null) {
+            mPyramid.setStripes(stripes);
+        }
+    }
+
+    /**
+     * Sets the processors run on every frame, before the pipeline is started.
+     * @param processors read for every frame, a concurrent list can be changed while the pipeline runs
+     */
+    public void setFrameProcessors(List<FrameProcessor> processors, FrameProcessor.ResultListener listener) {
+        mFrameProcessors = processors;
+        mProcessorListener = listener;
+    }
+
+    public FrameCredits getCredits() {
+        return mCredits;
+    }
+
+    public FrameStats getStats() {
+        return mStats;
+    }
+
+    public long getDroppedCount() {
+        return mWorker.getDroppedCount();
+    }
+
+    private void process(RawFrame frame) {
+        if (frame.data.length == 0) {
+            return;
+        }
+        mConfigurator.configure(mTransformer, frame);
+        // Native processors get the raw frame whether or not it is then encoded for the consumer.
+        runFrameProcessors(frame);
+
+        // Skips the frame entirely while the consumer has not acknowledged enough frames.
+        if (!mCredits.tryAcquire(frame.sequence, System.currentTimeMillis())) {
+            mStats.onDropped();
+            return;
+        }
+        // Skips frames too close to the last frame let through, only a few luma samples of the crop are read.
+        // Gated frames are counted by the gate, they are not lost frames.
+        FrameTransformPlan plan = mTransformer.getPlan();
+        if (!mMotionGate.accept(frame.data, frame.width, plan.cropX, plan.cropY, plan.cropWidth, plan.cropHeight, System.nanoTime())) {
+            mCredits.release(frame.sequence);
+            return;
+        }
+
+        // Scales, mirrors and rotates the frame in a single pass while encoding it once.
+        if (mPyramid != null) {
+            processOutputs(frame);
+            return;
+        }
+        long start = System.nanoTime();
+        FrameOutputStream encoded = mEncoder.encode(mTransformer, frame.data);
+        mStats.recordEncoding(mTransformer, System.nanoTime() - start);
+
+        if (!mSink.onFrame(frame, 0, mTransformer, mEncoder, encoded)) {
+            mCredits.release(frame.sequence);
+        }
+    }
+
+    private void runFrameProcessors(RawFrame frame) {
+        for (FrameProcessor processor : mFrameProcessors) {
+            try {
+                processor.process(frame, mTransformer.getPlan(), mProcessorListener);
+            } catch (RuntimeException e) {
+                // a failing processor must not cost the consumer its frame
+                mProcessorListener.onError(processor, frame, e);
+            }
+        }
+    }
+
+    // frame whose outputs are being produced, and whether any of them was delivered
+    private RawFrame mOutputFrame;
+    private boolean mOutputDelivered;
+
+    private void processOutputs(RawFrame frame) {
+        mPyramid.configure(mTransformer.getPlan());
+        mOutputFrame = frame;
+        mOutputDelivered = false;
+        int produced = mPyramid.process(frame.data, mOutputHandler);
+        mOutputFrame = null;
+        if (produced > 0) {
+            mStats.recordStage(FrameStats.Stage.TRANSFORM, mPyramid.getLastTransformNanos());
+            mStats.recordStage(FrameStats.Stage.ENCODE, mPyramid.getLastEncodeNanos());
+        }
+        mStats.onProcessed();
+        if (!mOutputDelivered) {
+            mCredits.release(frame.sequence);
+        }
+    }
+
+    private final FramePyramid.OutputHandler mOutputHandler = new FramePyramid.OutputHandler() {
+        @Override
+        public void onOutput(int output, FrameTransformer transformer, FrameEncoder encoder, FrameOutputStream encoded) {
+            if (mSink.onFrame(mOutputFrame, output, transformer, encoder, encoded)) {
+                mOutputDelivered = true;
+            }
+        }
+    };
+
+    private final FrameWorker.FrameHandler<RawFrame> mFrameHandler = new FrameWorker.FrameHandler<RawFrame>() {
+        @Override
+        public void onFrame(RawFrame frame) {
+            try {
+                process(frame);
+            } catch (RuntimeException e) {
+                // a failing frame must not stop the worker
+                mStats.onDropped();
+                mSink.onError(frame, e);
+            } finally {
+                // Hands the buffer back to the source once the frame is done
+                frame.release();
+            }
+        }
+
+        @Override
+        public void onDropped(RawFrame frame) {
+            mStats.onDropped();
+            frame.release();
+        }
+    };
+}
@@ -0,0 +1,38 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.util.Map;
+
+/**
+ * Native analysis of raw preview frames (barcodes, poses, blur detection...), run on the frame worker
+ * before the frame is transformed or encoded.
+ * The frame is only valid during {@link #process}, a processor working on it asynchronously
+ * calls {@link RawFrame#retain()} and releases the frame once done. Held frames keep their buffer
+ * out of the camera, so they should be released within a few frames.
+ */
+public interface FrameProcessor {
+
+    interface ResultListener {
+        /**
+         * Hands a result of the processor to JavaScript, may be called from any thread.
+         * @param result small payload of JSON compatible values: numbers, strings, booleans, lists and maps
+         */
+        void onResult(FrameProcessor processor, RawFrame frame, Map<String, Object> result);
+
+        /**
+         * Called when the processor threw, the frame is still transformed and encoded.
+         */
+        void onError(FrameProcessor processor, RawFrame frame, RuntimeException e);
+    }
+
+    /**
+     * @return name results are reported under.
+     */
+    String getName();
+
+    /**
+     * Called on the frame worker for every frame it takes, also when the frame is then skipped
+     * for lack of credits or motion.
+     * @param plan geometry of the frame, with the rotation and mirroring applied to display it
+     */
+    void process(RawFrame frame, FrameTransformPlan plan, ResultListener results);
+}
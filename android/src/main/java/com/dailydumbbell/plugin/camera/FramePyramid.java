@@ -0,0 +1,175 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Produces several outputs of different sizes from one frame. Outputs are levels of an image pyramid sorted
+ * from the largest to the smallest: the first level is transformed from the source frame, every other level
+ * is scaled from the NV21 frame of the level above it, so each conversion runs once per frame whatever
+ * the number of outputs. Levels only needed by outputs that skip the frame are not computed at all.
+ */
+public class FramePyramid {
+
+    public static class Output {
+        // target size, fitted like the canvas size
+        public final int width;
+        public final int height;
+        // the output is produced every rateDivisor frames
+        public final int rateDivisor;
+        public final FrameEncoder encoder;
+
+        public Output(int width, int height, int rateDivisor, FrameEncoder encoder) {
+            this.width = width;
+            this.height = height;
+            this.rateDivisor = Math.max(1, rateDivisor);
+            this.encoder = encoder;
+        }
+    }
+
+    public interface OutputHandler {
+        /**
+         * @param output index of the output, in the order outputs were given
+         * @param transformer transformer of the output, only valid during the call
+         * @param encoded only valid during the call
+         */
+        void onOutput(int output, FrameTransformer transformer, FrameEncoder encoder, FrameOutputStream encoded);
+    }
+
+    private static class Level {
+        final int index;
+        final Output output;
+        // scales the level above into this level, or the source into the first level
+        final FrameTransformer transformer = new FrameTransformer();
+        // reads the NV21 frame of this level as it is, for its encoder
+        final FrameTransformer identity = new FrameTransformer();
+
+        Level(int index, Output output) {
+            this.index = index;
+            this.output = output;
+        }
+    }
+
+    private final List<Level> mLevels = new ArrayList<>();
+    private final boolean[] mDue;
+    private FrameTransformPlan mPlan = null;
+    private long mFrameCount = 0;
+    private long mTransformNanos = 0;
+    private long mEncodeNanos = 0;
+
+    public FramePyramid(List<Output> outputs) {
+        for (int i = 0; i < outputs.size(); i++) {
+            mLevels.add(new Level(i, outputs.get(i)));
+        }
+        Collections.sort(mLevels, new Comparator<Level>() {
+            @Override
+            public int compare(Level a, Level b) {
+                return Long.compare((long) b.output.width * b.output.height, (long) a.output.width * a.output.height);
+            }
+        });
+        mDue = new boolean[mLevels.size()];
+    }
+
+    /**
+     * Converts every level in bands of rows on the given threads, null converts on the calling thread only.
+     */
+    public void setStripes(FrameStripes stripes) {
+        for (Level level : mLevels) {
+            level.transformer.setStripes(stripes);
+            level.identity.setStripes(stripes);
+        }
+    }
+
+    public int getOutputCount() {
+        return mLevels.size();
+    }
+
+    /**
+     * Plans every level from the frame plan, levels only change when the plan does.
+     * @param plan transform of the source frame, its target size is replaced by the size of each output
+     */
+    public void configure(FrameTransformPlan plan) {
+        if (plan == mPlan) {
+            return;
+        }
+        mPlan = plan;
+        FrameTransformPlan parent = null;
+        for (Level level : mLevels) {
+            FrameTransformPlan direct = plan.withTarget(level.output.width, level.output.height);
+            if (parent == null) {
+                level.transformer.configure(direct);
+            } else {
+                // levels are already rotated, they are only scaled, never larger than the level above
+                // and by the same factor on both axes so the aspect ratio is kept
+                double scale = Math.min(
+                    1,
+                    Math.min(parent.outputWidth / (double) direct.outputWidth, parent.outputHeight / (double) direct.outputHeight)
+                );
+                level.transformer.configure(
+                    new FrameTransformPlan(
+                        parent.outputWidth,
+                        parent.outputHeight,
+                        Math.min((int) Math.round(direct.outputWidth * scale), parent.outputWidth),
+                        Math.min((int) Math.round(direct.outputHeight * scale), parent.outputHeight),
+                        0,
+                        false
+                    )
+                );
+            }
+            FrameTransformPlan scaled = level.transformer.getPlan();
+            level.identity.configure(scaled.outputWidth, scaled.outputHeight, scaled.outputWidth, scaled.outputHeight, 0, false);
+            parent = level.transformer.getPlan();
+        }
+    }
+
+    /**
+     * Produces the outputs due for this frame.
+     * @return the number of outputs produced, 0 when every output skipped the frame
+     */
+    public int process(byte[] source, OutputHandler handler) {
+        long frame = mFrameCount++;
+        mTransformNanos = 0;
+        mEncodeNanos = 0;
+        int deepest = -1;
+        for (int i = 0; i < mLevels.size(); i++) {
+            mDue[i] = frame % mLevels.get(i).output.rateDivisor == 0;
+            if (mDue[i]) {
+                deepest = i;
+            }
+        }
+
+        int produced = 0;
+        byte[] parent = source;
+        for (int i = 0; i <= deepest; i++) {
+            Level level = mLevels.get(i);
+            long start = System.nanoTime();
+            byte[] nv21 = level.transformer.toNv21(parent);
+            mTransformNanos += System.nanoTime() - start;
+            if (mDue[i]) {
+                start = System.nanoTime();
+                FrameOutputStream encoded = level.output.encoder.encode(level.identity, nv21);
+                mEncodeNanos += System.nanoTime() - start;
+                handler.onOutput(level.index, level.identity, level.output.encoder, encoded);
+                produced++;
+            }
+            parent = nv21;
+        }
+        return produced;
+    }
+
+    /**
+     * @return time spent scaling levels during the last frame, in nanoseconds.
+     */
+    public long getLastTransformNanos() {
+        return mTransformNanos;
+    }
+
+    /**
+     * @return time spent encoding outputs during the last frame, in nanoseconds, including their own conversions.
+     */
+    public long getLastEncodeNanos() {
+        return mEncodeNanos;
+    }
+}
@@ -0,0 +1,68 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Builds {@code data:} URIs of encoded frames.
+ * Data is base64 encoded without line wraps straight into a reused char buffer
+ * that already holds the URI prefix, so the returned String is the only copy made per frame.
+ */
+public class FrameSerializer {
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private char[] mBuffer = new char[64 * 1024];
+    private String mMimeType = null;
+    private int mPrefixLength = 0;
+
+    public String toDataUri(String mimeType, byte[] data, int offset, int length) {
+        if (!mimeType.equals(mMimeType)) {
+            setPrefix(mimeType);
+        }
+        int size = mPrefixLength + getEncodedLength(length);
+        if (mBuffer.length < size) {
+            char[] buffer = new char[size + size / 4];
+            System.arraycopy(mBuffer, 0, buffer, 0, mPrefixLength);
+            mBuffer = buffer;
+        }
+        int end = encode(data, offset, length, mBuffer, mPrefixLength);
+        return new String(mBuffer, 0, end);
+    }
+
+    private void setPrefix(String mimeType) {
+        String prefix = "data:" + mimeType + ";base64,";
+        if (mBuffer.length < prefix.length()) {
+            mBuffer = new char[prefix.length() * 2];
+        }
+        prefix.getChars(0, prefix.length(), mBuffer, 0);
+        mPrefixLength = prefix.length();
+        mMimeType = mimeType;
+    }
+
+    public static int getEncodedLength(int length) {
+        return ((length + 2) / 3) * 4;
+    }
+
+    /**
+     * Base64 encodes {@code length} bytes from {@code data} into {@code out}, with padding and no line wraps.
+     * @return the index following the last written char.
+     */
+    public static int encode(byte[] data, int offset, int length, char[] out, int outOffset) {
+        int i = offset;
+        int o = outOffset;
+        int end = offset + length - length % 3;
+        while (i < end) {
+            int bits = (data[i++] & 0xff) << 16 | (data[i++] & 0xff) << 8 | (data[i++] & 0xff);
+            out[o++] = BASE64[(bits >>> 18) & 0x3f];
+            out[o++] = BASE64[(bits >>> 12) & 0x3f];
+            out[o++] = BASE64[(bits >>> 6) & 0x3f];
+            out[o++] = BASE64[bits & 0x3f];
+        }
+        int remaining = offset + length - end;
+        if (remaining > 0) {
+            int bits = (data[i] & 0xff) << 16 | (remaining == 2 ? (data[i + 1] & 0xff) << 8 : 0);
+            out[o++] = BASE64[(bits >>> 18) & 0x3f];
+            out[o++] = BASE64[(bits >>> 12) & 0x3f];
+            out[o++] = remaining == 2 ? BASE64[(bits >>> 6) & 0x3f] : '=';
+            out[o++] = '=';
+        }
+        return o;
+    }
+}
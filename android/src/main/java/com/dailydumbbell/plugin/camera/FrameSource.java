@@ -0,0 +1,23 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.io.IOException;
+
+/**
+ * Producer of raw NV21 frames feeding the frame pipeline, the camera preview or a generated stream.
+ * Frames handed to the listener are owned by it and must be released once processed,
+ * so that sources backed by a {@link PreviewBufferPool} get their buffers back.
+ */
+public interface FrameSource {
+
+    interface FrameListener {
+        void onFrame(RawFrame frame);
+    }
+
+    void start(FrameListener listener) throws IOException;
+
+    void stop();
+
+    int getWidth();
+
+    int getHeight();
+}
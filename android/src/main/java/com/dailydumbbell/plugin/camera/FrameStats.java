@@ -0,0 +1,123 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and per stage latencies of the frame pipeline.
+ * Everything is lock free so recording stays cheap on the frame worker.
+ */
+public class FrameStats {
+
+    public enum Stage {
+        TRANSFORM("transform"),
+        ENCODE("encode"),
+        SERIALIZE("serialize"),
+        DELIVER("deliver");
+
+        public final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+    }
+
+    private final LatencyHistogram[] mStages = new LatencyHistogram[Stage.values().length];
+    private final LatencyHistogram mEndToEnd = new LatencyHistogram();
+    private final AtomicLong mReceived = new AtomicLong();
+    private final AtomicLong mProcessed = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mDelivered = new AtomicLong();
+    private final AtomicLong mBytesOut = new AtomicLong();
+    private volatile long mSince = System.currentTimeMillis();
+
+    public FrameStats() {
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new LatencyHistogram();
+        }
+    }
+
+    public void onReceived() {
+        mReceived.incrementAndGet();
+    }
+
+    public void onProcessed() {
+        mProcessed.incrementAndGet();
+    }
+
+    public void onDropped() {
+        mDropped.incrementAndGet();
+    }
+
+    /**
+     * @param bytes payload size handed to the consumer
+     * @param latencyNanos delay between frame capture and delivery
+     */
+    public void onDelivered(long bytes, long latencyNanos) {
+        mDelivered.incrementAndGet();
+        mBytesOut.addAndGet(bytes);
+        mEndToEnd.record(latencyNanos);
+    }
+
+    public void recordStage(Stage stage, long nanos) {
+        mStages[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records a transformed and encoded frame.
+     * @param nanos duration of the encode call, transform included
+     */
+    public void recordEncoding(FrameTransformer transformer, long nanos) {
+        long transformNanos = transformer.getLastTransformNanos();
+        recordStage(Stage.TRANSFORM, transformNanos);
+        recordStage(Stage.ENCODE, nanos - transformNanos);
+        onProcessed();
+    }
+
+    public LatencyHistogram getStage(Stage stage) {
+        return mStages[stage.ordinal()];
+    }
+
+    public LatencyHistogram getEndToEnd() {
+        return mEndToEnd;
+    }
+
+    public long getReceived() {
+        return mReceived.get();
+    }
+
+    public long getProcessed() {
+        return mProcessed.get();
+    }
+
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    public long getDelivered() {
+        return mDelivered.get();
+    }
+
+    public long getBytesOut() {
+        return mBytesOut.get();
+    }
+
+    /**
+     * @return time at which recording started, in milliseconds since epoch.
+     */
+    public long getSince() {
+        return mSince;
+    }
+
+    public void reset() {
+        for (LatencyHistogram stage : mStages) {
+            stage.reset();
+        }
+        mEndToEnd.reset();
+        mReceived.set(0);
+        mProcessed.set(0);
+        mDropped.set(0);
+        mDelivered.set(0);
+        mBytesOut.set(0);
+        mSince = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,483 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Loopback HTTP server streaming encoded frames to local clients, as an alternative to base64 frames over the bridge.
+ * <ul>
+ *   <li>{@code GET /<token>/stream} answers a {@code multipart/x-mixed-replace} (MJPEG) stream.</li>
+ *   <li>{@code GET /<token>/ws} upgrades to a WebSocket sending one binary message per frame.</li>
+ * </ul>
+ * Every client has its own single frame slot, a slow client only ever skips to the latest frame
+ * and never holds back the others. The random token keeps other apps from guessing the stream URL.
+ */
+public class FrameStreamServer {
+    private static final int MAX_CLIENTS = 8;
+    private static final int MAX_REQUEST_SIZE = 8 * 1024;
+    private static final int REQUEST_TIMEOUT_MS = 5000;
+    private static final long JOIN_TIMEOUT_MS = 500;
+    private static final String BOUNDARY = "frame";
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private static final class StreamFrame {
+        final byte[] data;
+        final String mimeType;
+        final long sequence;
+        final long timestamp;
+
+        StreamFrame(byte[] data, String mimeType, long sequence, long timestamp) {
+            this.data = data;
+            this.mimeType = mimeType;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final int mPort;
+    private final String mToken;
+    private final List<Client> mClients = new ArrayList<>();
+    private ServerSocket mServerSocket = null;
+    private Thread mAcceptThread = null;
+    private long mDroppedCount = 0;
+
+    /**
+     * @param port port to listen on, 0 picks a free one
+     */
+    public FrameStreamServer(int port) {
+        mPort = port;
+        byte[] token = new byte[12];
+        new SecureRandom().nextBytes(token);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : token) {
+            hex.append(String.format(Locale.ROOT, "%02x", b));
+        }
+        mToken = hex.toString();
+    }
+
+    public synchronized void start() throws IOException {
+        if (mServerSocket != null) {
+            return;
+        }
+        mServerSocket = new ServerSocket(mPort, MAX_CLIENTS, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(this::accept, "FrameStreamServer");
+        mAcceptThread.start();
+    }
+
+    /**
+     * Closes the server and every client connection.
+     */
+    public void stop() {
+        Thread acceptThread;
+        List<Client> clients;
+        synchronized (this) {
+            if (mServerSocket == null) {
+                return;
+            }
+            closeQuietly(mServerSocket);
+            mServerSocket = null;
+            acceptThread = mAcceptThread;
+            mAcceptThread = null;
+            clients = new ArrayList<>(mClients);
+            mClients.clear();
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+        join(acceptThread);
+        for (Client client : clients) {
+            join(client.mThread);
+            join(client.mReader);
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return mServerSocket != null;
+    }
+
+    public synchronized int getPort() {
+        return mServerSocket != null ? mServerSocket.getLocalPort() : -1;
+    }
+
+    public String getStreamUrl() {
+        return "http://127.0.0.1:" + getPort() + "/" + mToken + "/stream";
+    }
+
+    public String getWebSocketUrl() {
+        return "ws://127.0.0.1:" + getPort() + "/" + mToken + "/ws";
+    }
+
+    public synchronized int getClientCount() {
+        return mClients.size();
+    }
+
+    /**
+     * @return frames replaced in a client slot before that client could send them, summed over all clients.
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Sends a frame to every connected client. The data is copied once and shared by all clients.
+     */
+    public void publish(byte[] data, int offset, int length, String mimeType, long sequence, long timestamp) {
+        List<Client> clients;
+        synchronized (this) {
+            if (mClients.isEmpty()) {
+                return;
+            }
+            clients = new ArrayList<>(mClients);
+        }
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        StreamFrame frame = new StreamFrame(copy, mimeType, sequence, timestamp);
+        for (Client client : clients) {
+            client.offer(frame);
+        }
+    }
+
+    private synchronized void onDropped() {
+        mDroppedCount++;
+    }
+
+    private synchronized boolean register(Client client) {
+        if (mServerSocket == null || mClients.size() >= MAX_CLIENTS) {
+            return false;
+        }
+        mClients.add(client);
+        return true;
+    }
+
+    private synchronized void unregister(Client client) {
+        mClients.remove(client);
+    }
+
+    private void accept() {
+        ServerSocket serverSocket;
+        synchronized (this) {
+            serverSocket = mServerSocket;
+        }
+        while (serverSocket != null && !serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Client client = new Client(socket);
+                if (register(client)) {
+                    client.mThread.start();
+                } else {
+                    closeQuietly(socket);
+                }
+            } catch (IOException e) {
+                // server socket closed
+                break;
+            }
+        }
+    }
+
+    private final class Client implements Runnable {
+        private final Socket mSocket;
+        private final Thread mThread;
+        // reads control frames from WebSocket clients, writes are shared with the frame thread
+        private volatile Thread mReader = null;
+        private final Object mWriteLock = new Object();
+        private StreamFrame mPending = null;
+        private boolean mClosed = false;
+
+        Client(Socket socket) {
+            mSocket = socket;
+            mThread = new Thread(this, "FrameStreamClient");
+        }
+
+        synchronized void offer(StreamFrame frame) {
+            if (mPending != null) {
+                onDropped();
+            }
+            mPending = frame;
+            notifyAll();
+        }
+
+        synchronized StreamFrame next() throws InterruptedException {
+            while (mPending == null && !mClosed) {
+                wait();
+            }
+            StreamFrame frame = mPending;
+            mPending = null;
+            return frame;
+        }
+
+        void close() {
+            synchronized (this) {
+                mClosed = true;
+                notifyAll();
+            }
+            closeQuietly(mSocket);
+        }
+
+        @Override
+        public void run() {
+            try {
+                mSocket.setTcpNoDelay(true);
+                mSocket.setSoTimeout(REQUEST_TIMEOUT_MS);
+                String[] request = readRequest(mSocket.getInputStream());
+                OutputStream out = mSocket.getOutputStream();
+                String path = request.length > 0 ? requestPath(request[0]) : "";
+                if (path.equals("/" + mToken + "/stream")) {
+                    streamMultipart(out);
+                } else if (path.equals("/" + mToken + "/ws") && header(request, "upgrade").equalsIgnoreCase("websocket")) {
+                    streamWebSocket(out, header(request, "sec-websocket-key"));
+                } else {
+                    writeAscii(out, "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException | NoSuchAlgorithmException e) {
+                // client went away or server stopped
+            } finally {
+                unregister(this);
+                close();
+            }
+        }
+
+        private void streamMultipart(OutputStream out) throws IOException, InterruptedException {
+            writeAscii(
+                out,
+                "HTTP/1.1 200 OK\r\n" +
+                "Content-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY + "\r\n" +
+                "Cache-Control: no-cache, no-store\r\n" +
+                "Access-Control-Allow-Origin: *\r\n" +
+                "Connection: close\r\n\r\n"
+            );
+            out.flush();
+            StreamFrame frame;
+            while ((frame = next()) != null) {
+                writeAscii(
+                    out,
+                    "--" + BOUNDARY + "\r\n" +
+                    "Content-Type: " + frame.mimeType + "\r\n" +
+                    "Content-Length: " + frame.data.length + "\r\n" +
+                    "X-Frame-Sequence: " + frame.sequence + "\r\n" +
+                    "X-Frame-Timestamp: " + frame.timestamp + "\r\n\r\n"
+                );
+                out.write(frame.data);
+                writeAscii(out, "\r\n");
+                out.flush();
+            }
+        }
+
+        private void streamWebSocket(OutputStream out, String key) throws IOException, InterruptedException, NoSuchAlgorithmException {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            char[] accept = new char[FrameSerializer.getEncodedLength(digest.length)];
+            FrameSerializer.encode(digest, 0, digest.length, accept, 0);
+            writeAscii(
+                out,
+                "HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: " + new String(accept) + "\r\n\r\n"
+            );
+            out.flush();
+            // the client only sends control frames, wait for them as long as it stays connected
+            mSocket.setSoTimeout(0);
+            InputStream in = mSocket.getInputStream();
+            mReader = new Thread(() -> readWebSocket(in, out), "FrameStreamClientReader");
+            mReader.start();
+            byte[] header = new byte[10];
+            StreamFrame frame;
+            while ((frame = next()) != null) {
+                writeWebSocketFrame(out, header, OPCODE_BINARY, frame.data, frame.data.length);
+            }
+        }
+
+        /**
+         * Answers pings with pongs and a close with a close, until the client leaves.
+         * Closing the client wakes up the frame thread, which unregisters it.
+         */
+        private void readWebSocket(InputStream in, OutputStream out) {
+            byte[] header = new byte[10];
+            byte[] mask = new byte[4];
+            byte[] payload = new byte[MAX_CONTROL_PAYLOAD];
+            try {
+                int first;
+                while ((first = in.read()) != -1) {
+                    int opcode = first & 0x0f;
+                    int second = readByte(in);
+                    long length = second & 0x7f;
+                    if (length == 126) {
+                        length = readLength(in, 2);
+                    } else if (length == 127) {
+                        length = readLength(in, 8);
+                    }
+                    // client frames are always masked
+                    if ((second & 0x80) == 0) {
+                        break;
+                    }
+                    readFully(in, mask, mask.length);
+                    if (opcode < OPCODE_CLOSE) {
+                        skipFully(in, length);
+                        continue;
+                    }
+                    if (length > MAX_CONTROL_PAYLOAD) {
+                        break;
+                    }
+                    readFully(in, payload, (int) length);
+                    for (int i = 0; i < length; i++) {
+                        payload[i] ^= mask[i % 4];
+                    }
+                    if (opcode == OPCODE_CLOSE) {
+                        // echo the status code, if any
+                        writeWebSocketFrame(out, header, OPCODE_CLOSE, payload, (int) Math.min(length, 2));
+                        break;
+                    } else if (opcode == OPCODE_PING) {
+                        writeWebSocketFrame(out, header, OPCODE_PONG, payload, (int) length);
+                    }
+                }
+            } catch (IOException e) {
+                // client went away or server stopped
+            } finally {
+                unregister(this);
+                close();
+            }
+        }
+
+        private void writeWebSocketFrame(OutputStream out, byte[] header, int opcode, byte[] data, int length) throws IOException {
+            int headerLength;
+            // final fragment, server frames are not masked
+            header[0] = (byte) (0x80 | opcode);
+            if (length < 126) {
+                header[1] = (byte) length;
+                headerLength = 2;
+            } else if (length < 65536) {
+                header[1] = 126;
+                header[2] = (byte) (length >>> 8);
+                header[3] = (byte) length;
+                headerLength = 4;
+            } else {
+                header[1] = 127;
+                for (int i = 0; i < 8; i++) {
+                    header[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+                }
+                headerLength = 10;
+            }
+            synchronized (mWriteLock) {
+                out.write(header, 0, headerLength);
+                out.write(data, 0, length);
+                out.flush();
+            }
+        }
+    }
+
+    private static String[] readRequest(InputStream in) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        int matched = 0;
+        try {
+            int b;
+            while (matched < 4 && (b = in.read()) != -1) {
+                request.write(b);
+                if (request.size() > MAX_REQUEST_SIZE) {
+                    throw new IOException("Request too large");
+                }
+                matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+            }
+        } catch (SocketTimeoutException e) {
+            throw new IOException("Request timed out", e);
+        }
+        return new String(request.toByteArray(), StandardCharsets.US_ASCII).split("\r\n");
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private static long readLength(InputStream in, int bytes) throws IOException {
+        long length = 0;
+        for (int i = 0; i < bytes; i++) {
+            length = (length << 8) | readByte(in);
+        }
+        return length;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(buffer, read, length - read);
+            if (count == -1) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                readByte(in);
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    private static String requestPath(String requestLine) {
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2 || !parts[0].equals("GET")) {
+            return "";
+        }
+        int query = parts[1].indexOf('?');
+        return query >= 0 ? parts[1].substring(0, query) : parts[1];
+    }
+
+    private static String header(String[] request, String name) {
+        for (int i = 1; i < request.length; i++) {
+            int colon = request[i].indexOf(':');
+            if (colon > 0 && request[i].substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return request[i].substring(colon + 1).trim();
+            }
+        }
+        return "";
+    }
+
+    private static void writeAscii(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void join(Thread thread) {
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fixed pool of threads splitting a frame into bands of rows converted in parallel.
+ * The calling thread converts the first band itself and returns once every band is done,
+ * so callers see the same buffers as after a sequential pass.
+ * Frames too small to amortize the hand-off are converted on the calling thread only.
+ */
+public class FrameStripes {
+    // below this many output pixels per band, waking another thread costs more than it saves
+    public static final int MIN_STRIPE_PIXELS = 128 * 1024;
+    private static final int MIN_STRIPE_ROWS = 8;
+
+    public interface RowTask {
+        /**
+         * Converts rows {@code fromRow} included to {@code toRow} excluded, bands never overlap.
+         */
+        void run(int fromRow, int toRow);
+    }
+
+    private final int mParallelism;
+    private final ExecutorService mExecutor;
+
+    /**
+     * @param parallelism threads converting a frame including the caller, 1 converts on the caller only
+     */
+    public FrameStripes(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+        if (mParallelism == 1) {
+            mExecutor = null;
+            return;
+        }
+        final AtomicInteger threads = new AtomicInteger();
+        mExecutor = Executors.newFixedThreadPool(
+            mParallelism - 1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "FrameStripe-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }
+        );
+    }
+
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * @param rowPixels output pixels written per row, over every plane
+     * @return the number of bands a conversion of {@code rows} rows is split into.
+     */
+    public int getStripeCount(int rows, int rowPixels) {
+        if (mParallelism == 1 || rows <= 0 || mExecutor.isShutdown()) {
+            return 1;
+        }
+        long pixels = (long) rows * rowPixels;
+        int stripes = (int) Math.min(mParallelism, pixels / MIN_STRIPE_PIXELS);
+        return Math.max(1, Math.min(stripes, rows / MIN_STRIPE_ROWS));
+    }
+
+    /**
+     * Runs the task over {@code rows} rows and waits for every band.
+     * @throws RuntimeException the first failure of a band, once every band is done
+     */
+    public void run(final RowTask task, int rows, int rowPixels) {
+        final int stripes = getStripeCount(rows, rowPixels);
+        if (stripes == 1) {
+            task.run(0, rows);
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(stripes - 1);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        for (int s = 1; s < stripes; s++) {
+            final int fromRow = (int) ((long) rows * s / stripes);
+            final int toRow = (int) ((long) rows * (s + 1) / stripes);
+            Runnable band = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run(fromRow, toRow);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            try {
+                mExecutor.execute(band);
+            } catch (RejectedExecutionException e) {
+                // shut down while a frame was still converted, the band runs on the caller
+                band.run();
+            }
+        }
+        try {
+            task.run(0, rows / stripes);
+        } finally {
+            awaitUninterruptibly(done);
+        }
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the threads once the bands in progress are done, later frames are converted on their calling thread.
+     */
+    public void shutdown() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                // bands still write into the output, it cannot be handed out before they are done
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Immutable geometry of a preview session: source size, crop, scaled size, rotation, mirroring and the resulting
+ * output and buffer sizes. Computed once per session and replaced as a whole when the display rotates,
+ * so frame workers only ever read a consistent plan and do no geometry math per frame.
+ */
+public final class FrameTransformPlan {
+    // scaling paths, as reported in stats
+    public static final String SCALE_DIRECT = "direct";
+    public static final String SCALE_BOX = "box";
+    public static final String SCALE_RESAMPLE = "resample";
+
+    public final int sourceWidth;
+    public final int sourceHeight;
+    // region of the source that is transformed, even aligned, the whole source when not cropped
+    public final int cropX;
+    public final int cropY;
+    public final int cropWidth;
+    public final int cropHeight;
+    // size of the frame after scaling and before rotation, always even
+    public final int scaledWidth;
+    public final int scaledHeight;
+    // clockwise, one of 0, 90, 180 or 270
+    public final int rotation;
+    public final boolean mirror;
+    public final int outputWidth;
+    public final int outputHeight;
+    // largest integer factor the cropped source can be decimated by on both axes, 1 when upscaling
+    public final int sampleFactor;
+    // whether the cropped source is exactly 2x or 4x the scaled size, so that blocks are averaged rather than resampled
+    public final boolean boxFilter;
+
+    /**
+     * @param scaledWidth width of the frame after scaling and before rotation, rounded down to an even size
+     * @param scaledHeight height of the frame after scaling and before rotation, rounded down to an even size
+     */
+    public FrameTransformPlan(int sourceWidth, int sourceHeight, int scaledWidth, int scaledHeight, int rotation, boolean mirror) {
+        this(sourceWidth, sourceHeight, 0, 0, sourceWidth, sourceHeight, scaledWidth, scaledHeight, rotation, mirror);
+    }
+
+    /**
+     * @param cropX left of the transformed region of the source, rounded down to an even column
+     * @param cropY top of the transformed region of the source, rounded down to an even row
+     * @param cropWidth width of the transformed region, rounded down to an even size
+     * @param cropHeight height of the transformed region, rounded down to an even size
+     */
+    public FrameTransformPlan(
+        int sourceWidth,
+        int sourceHeight,
+        int cropX,
+        int cropY,
+        int cropWidth,
+        int cropHeight,
+        int scaledWidth,
+        int scaledHeight,
+        int rotation,
+        boolean mirror
+    ) {
+        // chroma is subsampled by two, crop bounds and output sizes are kept even
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.cropX = Math.max(0, Math.min(cropX & ~1, sourceWidth - 2));
+        this.cropY = Math.max(0, Math.min(cropY & ~1, sourceHeight - 2));
+        this.cropWidth = Math.max(2, Math.min(cropWidth & ~1, (sourceWidth - this.cropX) & ~1));
+        this.cropHeight = Math.max(2, Math.min(cropHeight & ~1, (sourceHeight - this.cropY) & ~1));
+        this.scaledWidth = Math.max(2, scaledWidth & ~1);
+        this.scaledHeight = Math.max(2, scaledHeight & ~1);
+        this.rotation = ((rotation % 360) + 360) % 360;
+        this.mirror = mirror;
+        boolean swap = this.rotation == 90 || this.rotation == 270;
+        this.outputWidth = swap ? this.scaledHeight : this.scaledWidth;
+        this.outputHeight = swap ? this.scaledWidth : this.scaledHeight;
+        this.sampleFactor = Math.max(1, Math.min(this.cropWidth / this.scaledWidth, this.cropHeight / this.scaledHeight));
+        this.boxFilter = (
+            (sampleFactor == 2 || sampleFactor == 4) &&
+            this.cropWidth == this.scaledWidth * sampleFactor &&
+            this.cropHeight == this.scaledHeight * sampleFactor
+        );
+    }
+
+    /**
+     * Plans a transform fitting the source into the target size while keeping its aspect ratio.
+     * @see PreviewGeometry#calculateAspectRatio(int, int, int, int)
+     */
+    public static FrameTransformPlan fit(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, int rotation, boolean mirror) {
+        int[] widthHeight = PreviewGeometry.calculateAspectRatio(sourceWidth, sourceHeight, targetWidth, targetHeight);
+        return new FrameTransformPlan(sourceWidth, sourceHeight, widthHeight[0], widthHeight[1], rotation, mirror);
+    }
+
+    /**
+     * Plans a transform of a region of the source, fitted into the target size while keeping its aspect ratio.
+     * @param region {@code {x, y, width, height}} of the region in output coordinates normalized to the unit square,
+     * null for the whole source
+     * @see #toSourceRect(int, int, int, boolean, double[])
+     */
+    public static FrameTransformPlan fit(
+        int sourceWidth,
+        int sourceHeight,
+        double[] region,
+        int targetWidth,
+        int targetHeight,
+        int rotation,
+        boolean mirror
+    ) {
+        if (region == null) {
+            return fit(sourceWidth, sourceHeight, targetWidth, targetHeight, rotation, mirror);
+        }
+        int[] crop = toSourceRect(sourceWidth, sourceHeight, rotation, mirror, region);
+        int[] widthHeight = PreviewGeometry.calculateAspectRatio(crop[2], crop[3], targetWidth, targetHeight);
+        return new FrameTransformPlan(sourceWidth, sourceHeight, crop[0], crop[1], crop[2], crop[3], widthHeight[0], widthHeight[1], rotation, mirror);
+    }
+
+    /**
+     * Maps a region of the output back to the source, undoing the rotation then the mirroring.
+     * @param region {@code {x, y, width, height}} in output coordinates normalized to the unit square
+     * @return {@code {x, y, width, height}} of the region in source pixels, even aligned and clamped to the source
+     */
+    public static int[] toSourceRect(int sourceWidth, int sourceHeight, int rotation, boolean mirror, double[] region) {
+        double x0 = clamp(region[0]);
+        double y0 = clamp(region[1]);
+        double x1 = clamp(region[0] + region[2]);
+        double y1 = clamp(region[1] + region[3]);
+        double u0;
+        double v0;
+        double u1;
+        double v1;
+        switch (((rotation % 360) + 360) % 360) {
+            case 90:
+                u0 = y0;
+                u1 = y1;
+                v0 = 1 - x1;
+                v1 = 1 - x0;
+                break;
+            case 180:
+                u0 = 1 - x1;
+                u1 = 1 - x0;
+                v0 = 1 - y1;
+                v1 = 1 - y0;
+                break;
+            case 270:
+                u0 = 1 - y1;
+                u1 = 1 - y0;
+                v0 = x0;
+                v1 = x1;
+                break;
+            default:
+                u0 = x0;
+                u1 = x1;
+                v0 = y0;
+                v1 = y1;
+                break;
+        }
+        if (mirror) {
+            double u = u0;
+            u0 = 1 - u1;
+            u1 = 1 - u;
+        }
+        int left = (int) Math.round(u0 * sourceWidth) & ~1;
+        int top = (int) Math.round(v0 * sourceHeight) & ~1;
+        int right = (int) Math.round(u1 * sourceWidth);
+        int bottom = (int) Math.round(v1 * sourceHeight);
+        int width = Math.max(2, (right - left) & ~1);
+        int height = Math.max(2, (bottom - top) & ~1);
+        left = Math.max(0, Math.min(left, (sourceWidth - width) & ~1));
+        top = Math.max(0, Math.min(top, (sourceHeight - height) & ~1));
+        return new int[] { left, top, Math.min(width, sourceWidth), Math.min(height, sourceHeight) };
+    }
+
+    private static double clamp(double value) {
+        return value < 0 ? 0 : Math.min(value, 1);
+    }
+
+    public boolean isCropped() {
+        return cropX != 0 || cropY != 0 || cropWidth != (sourceWidth & ~1) || cropHeight != (sourceHeight & ~1);
+    }
+
+    /**
+     * @return the same plan of the same source region rotated differently, or this plan when the rotation is unchanged.
+     */
+    public FrameTransformPlan withRotation(int rotation) {
+        if (((rotation % 360) + 360) % 360 == this.rotation) {
+            return this;
+        }
+        return new FrameTransformPlan(sourceWidth, sourceHeight, cropX, cropY, cropWidth, cropHeight, scaledWidth, scaledHeight, rotation, mirror);
+    }
+
+    /**
+     * @return the same source region fitted into another target size, with the same rotation and mirroring.
+     */
+    public FrameTransformPlan withTarget(int targetWidth, int targetHeight) {
+        int[] widthHeight = PreviewGeometry.calculateAspectRatio(cropWidth, cropHeight, targetWidth, targetHeight);
+        return new FrameTransformPlan(sourceWidth, sourceHeight, cropX, cropY, cropWidth, cropHeight, widthHeight[0], widthHeight[1], rotation, mirror);
+    }
+
+    /**
+     * @return {@link #SCALE_DIRECT} when the source is not scaled, {@link #SCALE_BOX} for an exact 2x or 4x downscale,
+     * {@link #SCALE_RESAMPLE} otherwise.
+     */
+    public String getScalePath() {
+        if (boxFilter) {
+            return SCALE_BOX;
+        }
+        return cropWidth == scaledWidth && cropHeight == scaledHeight ? SCALE_DIRECT : SCALE_RESAMPLE;
+    }
+
+    public int getOutputSize() {
+        return outputWidth * outputHeight;
+    }
+
+    /**
+     * @return size of an NV21 or I420 output buffer.
+     */
+    public int getYuvSize() {
+        return getOutputSize() * 3 / 2;
+    }
+
+    public boolean hasSameGeometry(FrameTransformPlan plan) {
+        return (
+            plan != null &&
+            sourceWidth == plan.sourceWidth &&
+            sourceHeight == plan.sourceHeight &&
+            cropX == plan.cropX &&
+            cropY == plan.cropY &&
+            cropWidth == plan.cropWidth &&
+            cropHeight == plan.cropHeight &&
+            scaledWidth == plan.scaledWidth &&
+            scaledHeight == plan.scaledHeight &&
+            rotation == plan.rotation &&
+            mirror == plan.mirror
+        );
+    }
+}
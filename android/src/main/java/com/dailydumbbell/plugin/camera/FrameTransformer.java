@@ -0,0 +1,493 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Scales, mirrors and rotates NV21 frames in a single pass over the source planes.
+ * The source index of every output pixel only depends on its column on one axis and its row on the other,
+ * so the whole transform reduces to two lookup tables computed by {@link #configure}.
+ * Output buffers are kept between frames and only reallocated when the output size changes.
+ * Mirroring is applied before the clockwise rotation, as a {@code Matrix.preScale(-1, 1)}
+ * followed by {@code Matrix.postRotate(rotation)} would.
+ * Exact 2x and 4x downscales average pixel blocks on both planes, other ratios sample the nearest source pixel.
+ * A cropped plan only reads the pixels of its region, so the cost follows the region size rather than the frame size.
+ * With {@link FrameStripes}, output rows are split into bands converted in parallel, each band only writes its own rows.
+ */
+public class FrameTransformer {
+    private int mSourceWidth = -1;
+    private int mSourceHeight = -1;
+    private int mCropWidth = -1;
+    private int mCropHeight = -1;
+    private int mScaledWidth = -1;
+    private int mScaledHeight = -1;
+    private int mRotation = -1;
+    private boolean mMirror = false;
+    private FrameTransformPlan mPlan;
+    // side of the averaged source blocks, 1 when resampling
+    private int mBoxFactor = 1;
+    private int mBoxShift = 0;
+    // whether the plan leaves frames untouched, so NV21 frames are used as they are
+    private boolean mIdentity = false;
+
+    private int mOutputWidth;
+    private int mOutputHeight;
+
+    // luma source offsets of output columns and rows
+    private int[] mYColumns;
+    private int[] mYRows;
+    // chroma source offsets of output chroma columns and rows (one per 2x2 block)
+    private int[] mUvColumns;
+    private int[] mUvRows;
+    // chroma source offsets of every output column and row, used for ARGB
+    private int[] mUvPixelColumns;
+    private int[] mUvPixelRows;
+
+    private byte[] mNv21;
+    private byte[] mI420;
+    private int[] mArgb;
+    private long mLastTransformNanos = 0;
+
+    private static final int TASK_LUMA = 0;
+    private static final int TASK_NV21 = 1;
+    private static final int TASK_I420 = 2;
+    private static final int TASK_ARGB = 3;
+    private static final int TASK_ARGB_FROM_NV21 = 4;
+    // splits conversions into bands of rows, null converts on the calling thread only
+    private FrameStripes mStripes = null;
+    // conversion in progress, read by every band
+    private int mTask;
+    private byte[] mTaskSource;
+    private byte[] mTaskOutput;
+    private final FrameStripes.RowTask mRowTask = new FrameStripes.RowTask() {
+        @Override
+        public void run(int fromRow, int toRow) {
+            convertRows(fromRow, toRow);
+        }
+    };
+
+    /**
+     * @param sourceWidth preview frame width
+     * @param sourceHeight preview frame height
+     * @param scaledWidth width of the frame after scaling and before rotation
+     * @param scaledHeight height of the frame after scaling and before rotation
+     * @param rotation clockwise rotation, one of 0, 90, 180 or 270
+     * @param mirror whether the frame is flipped horizontally before rotation
+     */
+    public void configure(int sourceWidth, int sourceHeight, int scaledWidth, int scaledHeight, int rotation, boolean mirror) {
+        configure(new FrameTransformPlan(sourceWidth, sourceHeight, scaledWidth, scaledHeight, rotation, mirror));
+    }
+
+    /**
+     * Applies a plan, lookup tables are only rebuilt when its geometry differs from the current one.
+     */
+    public void configure(FrameTransformPlan plan) {
+        if (plan == mPlan) {
+            return;
+        }
+        if (plan.hasSameGeometry(mPlan)) {
+            mPlan = plan;
+            return;
+        }
+
+        mPlan = plan;
+        mSourceWidth = plan.sourceWidth;
+        mSourceHeight = plan.sourceHeight;
+        mCropWidth = plan.cropWidth;
+        mCropHeight = plan.cropHeight;
+        mScaledWidth = plan.scaledWidth;
+        mScaledHeight = plan.scaledHeight;
+        mRotation = plan.rotation;
+        mMirror = plan.mirror;
+        mOutputWidth = plan.outputWidth;
+        mOutputHeight = plan.outputHeight;
+        mBoxFactor = plan.boxFilter ? plan.sampleFactor : 1;
+        mBoxShift = 2 * Integer.numberOfTrailingZeros(mBoxFactor);
+        mIdentity = (
+            FrameTransformPlan.SCALE_DIRECT.equals(plan.getScalePath()) &&
+            !plan.isCropped() &&
+            plan.rotation == 0 &&
+            !plan.mirror &&
+            plan.sourceWidth == plan.scaledWidth &&
+            plan.sourceHeight == plan.scaledHeight
+        );
+
+        int sourceWidth = mSourceWidth;
+        int sourceHeight = mSourceHeight;
+        boolean swap = mRotation == 90 || mRotation == 270;
+
+        mYColumns = new int[mOutputWidth];
+        mYRows = new int[mOutputHeight];
+        mUvColumns = new int[mOutputWidth / 2];
+        mUvRows = new int[mOutputHeight / 2];
+        mUvPixelColumns = new int[mOutputWidth];
+        mUvPixelRows = new int[mOutputHeight];
+
+        int uvOffset = sourceWidth * sourceHeight;
+        // chroma of an output 2x2 block starts at the source block pair it covers
+        int uvAlign = 2 * mBoxFactor;
+        // only the cropped region is ever read, the crop origin is even so chroma stays aligned
+        int cropX = plan.cropX;
+        int cropY = plan.cropY;
+        for (int ox = 0; ox < mOutputWidth; ox++) {
+            int[] xy = sourcePoint(ox, false);
+            mYColumns[ox] = swap ? (cropY + xy[1]) * sourceWidth : cropX + xy[0];
+            mUvPixelColumns[ox] = swap
+                ? uvOffset + ((cropY + xy[1] - xy[1] % uvAlign) >> 1) * sourceWidth
+                : cropX + xy[0] - xy[0] % uvAlign;
+            if ((ox & 1) == 0) {
+                mUvColumns[ox >> 1] = mUvPixelColumns[ox];
+            }
+        }
+        for (int oy = 0; oy < mOutputHeight; oy++) {
+            int[] xy = sourcePoint(oy, true);
+            mYRows[oy] = swap ? cropX + xy[0] : (cropY + xy[1]) * sourceWidth;
+            mUvPixelRows[oy] = swap
+                ? cropX + xy[0] - xy[0] % uvAlign
+                : uvOffset + ((cropY + xy[1] - xy[1] % uvAlign) >> 1) * sourceWidth;
+            if ((oy & 1) == 0) {
+                mUvRows[oy >> 1] = mUvPixelRows[oy];
+            }
+        }
+    }
+
+    /**
+     * Converts frames in bands of rows on the given threads, output stays identical to a sequential pass.
+     * @param stripes null converts on the calling thread only
+     */
+    public void setStripes(FrameStripes stripes) {
+        mStripes = stripes;
+    }
+
+    /**
+     * @return the plan the lookup tables were built from, or null before the first {@link #configure}.
+     */
+    public FrameTransformPlan getPlan() {
+        return mPlan;
+    }
+
+    public int getOutputWidth() {
+        return mOutputWidth;
+    }
+
+    public int getOutputHeight() {
+        return mOutputHeight;
+    }
+
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public boolean isMirrored() {
+        return mMirror;
+    }
+
+    /**
+     * @return the duration of the last transform, in nanoseconds.
+     */
+    public long getLastTransformNanos() {
+        return mLastTransformNanos;
+    }
+
+    /**
+     * Transforms an NV21 frame into a reused NV21 buffer of the output size.
+     * A plan leaving frames untouched returns the source itself, which must then only be read.
+     */
+    public byte[] toNv21(byte[] source) {
+        if (mIdentity) {
+            mLastTransformNanos = 0;
+            return source;
+        }
+        long start = System.nanoTime();
+        int outputSize = mOutputWidth * mOutputHeight;
+        if (mNv21 == null || mNv21.length != outputSize * 3 / 2) {
+            mNv21 = new byte[outputSize * 3 / 2];
+        }
+        convert(TASK_NV21, source, mNv21, mOutputHeight / 2, 3 * mOutputWidth);
+        mLastTransformNanos = System.nanoTime() - start;
+        return mNv21;
+    }
+
+    /**
+     * Transforms an NV21 frame into a reused planar I420 buffer of the output size.
+     */
+    public byte[] toI420(byte[] source) {
+        long start = System.nanoTime();
+        int outputSize = mOutputWidth * mOutputHeight;
+        if (mI420 == null || mI420.length != outputSize * 3 / 2) {
+            mI420 = new byte[outputSize * 3 / 2];
+        }
+        convert(TASK_I420, source, mI420, mOutputHeight / 2, 3 * mOutputWidth);
+        mLastTransformNanos = System.nanoTime() - start;
+        return mI420;
+    }
+
+    /**
+     * Transforms an NV21 frame into a reused ARGB_8888 pixel buffer of the output size.
+     */
+    public int[] toArgb(byte[] source) {
+        long start = System.nanoTime();
+        int outputSize = mOutputWidth * mOutputHeight;
+        if (mArgb == null || mArgb.length != outputSize) {
+            mArgb = new int[outputSize];
+        }
+        if (mBoxFactor > 1) {
+            // averages blocks once into NV21, then converts it pixel for pixel
+            convert(TASK_ARGB_FROM_NV21, toNv21(source), null, mOutputHeight, mOutputWidth);
+        } else {
+            convert(TASK_ARGB, source, null, mOutputHeight, mOutputWidth);
+        }
+        mLastTransformNanos = System.nanoTime() - start;
+        return mArgb;
+    }
+
+    /**
+     * Transforms the luma plane of an NV21 frame only, into the first pixels of {@code output}.
+     */
+    public void toLuma(byte[] source, byte[] output) {
+        long start = System.nanoTime();
+        if (mIdentity) {
+            System.arraycopy(source, 0, output, 0, mOutputWidth * mOutputHeight);
+        } else {
+            convert(TASK_LUMA, source, output, mOutputHeight, mOutputWidth);
+        }
+        mLastTransformNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Transforms the luma plane of an NV21 frame only, computing its brightness statistics in the same pass.
+     * The gradient reads the previous output row, so this pass always runs on the calling thread.
+     */
+    public void toLuma(byte[] source, byte[] output, LumaStats stats) {
+        long start = System.nanoTime();
+        int[] histogram = stats.reset();
+        int width = mOutputWidth;
+        long sum = 0;
+        long gradient = 0;
+        int i = 0;
+        for (int oy = 0; oy < mOutputHeight; oy++) {
+            int row = mYRows[oy];
+            for (int ox = 0; ox < width; ox++) {
+                int luma = mBoxFactor > 1 ? boxAverage(source, row + mYColumns[ox], 1) : source[row + mYColumns[ox]] & 0xff;
+                output[i] = (byte) luma;
+                sum += luma;
+                histogram[LumaStats.bin(luma)]++;
+                if (ox > 0 && oy > 0) {
+                    // neighbours were written just before, the output doubles as the previous row
+                    int dx = luma - (output[i - 1] & 0xff);
+                    int dy = luma - (output[i - width] & 0xff);
+                    gradient += dx * dx + dy * dy;
+                }
+                i++;
+            }
+        }
+        stats.set(sum, i, gradient, (width - 1) * (mOutputHeight - 1));
+        mLastTransformNanos = System.nanoTime() - start;
+    }
+
+    private void convert(int task, byte[] source, byte[] output, int rows, int rowPixels) {
+        mTask = task;
+        mTaskSource = source;
+        mTaskOutput = output;
+        FrameStripes stripes = mStripes;
+        try {
+            if (stripes != null) {
+                stripes.run(mRowTask, rows, rowPixels);
+            } else {
+                convertRows(0, rows);
+            }
+        } finally {
+            mTaskSource = null;
+            mTaskOutput = null;
+        }
+    }
+
+    /**
+     * Converts a band of the current task, rows are chroma rows for NV21 and I420, covering two luma rows each.
+     */
+    private void convertRows(int fromRow, int toRow) {
+        byte[] source = mTaskSource;
+        byte[] output = mTaskOutput;
+        switch (mTask) {
+            case TASK_NV21:
+                lumaRows(source, output, 2 * fromRow, 2 * toRow);
+                nv21ChromaRows(source, output, fromRow, toRow);
+                break;
+            case TASK_I420:
+                lumaRows(source, output, 2 * fromRow, 2 * toRow);
+                i420ChromaRows(source, output, fromRow, toRow);
+                break;
+            case TASK_ARGB:
+                argbRows(source, fromRow, toRow);
+                break;
+            case TASK_ARGB_FROM_NV21:
+                argbRowsFromNv21(source, fromRow, toRow);
+                break;
+            default:
+                lumaRows(source, output, fromRow, toRow);
+                break;
+        }
+    }
+
+    private void lumaRows(byte[] source, byte[] output, int fromRow, int toRow) {
+        int i = fromRow * mOutputWidth;
+        if (mBoxFactor > 1) {
+            for (int oy = fromRow; oy < toRow; oy++) {
+                int row = mYRows[oy];
+                for (int column : mYColumns) {
+                    output[i++] = (byte) boxAverage(source, row + column, 1);
+                }
+            }
+            return;
+        }
+        for (int oy = fromRow; oy < toRow; oy++) {
+            int row = mYRows[oy];
+            for (int column : mYColumns) {
+                output[i++] = source[row + column];
+            }
+        }
+    }
+
+    private void nv21ChromaRows(byte[] source, byte[] output, int fromRow, int toRow) {
+        int i = mOutputWidth * mOutputHeight + fromRow * mOutputWidth;
+        if (mBoxFactor > 1) {
+            for (int cy = fromRow; cy < toRow; cy++) {
+                int row = mUvRows[cy];
+                for (int column : mUvColumns) {
+                    int uv = row + column;
+                    output[i++] = (byte) boxAverage(source, uv, 2);
+                    output[i++] = (byte) boxAverage(source, uv + 1, 2);
+                }
+            }
+            return;
+        }
+        for (int cy = fromRow; cy < toRow; cy++) {
+            int row = mUvRows[cy];
+            for (int column : mUvColumns) {
+                int uv = row + column;
+                output[i++] = source[uv];
+                output[i++] = source[uv + 1];
+            }
+        }
+    }
+
+    private void i420ChromaRows(byte[] source, byte[] output, int fromRow, int toRow) {
+        int outputSize = mOutputWidth * mOutputHeight;
+        int u = outputSize + fromRow * (mOutputWidth / 2);
+        int v = u + outputSize / 4;
+        if (mBoxFactor > 1) {
+            for (int cy = fromRow; cy < toRow; cy++) {
+                int row = mUvRows[cy];
+                for (int column : mUvColumns) {
+                    int uv = row + column;
+                    output[v++] = (byte) boxAverage(source, uv, 2);
+                    output[u++] = (byte) boxAverage(source, uv + 1, 2);
+                }
+            }
+            return;
+        }
+        for (int cy = fromRow; cy < toRow; cy++) {
+            int row = mUvRows[cy];
+            for (int column : mUvColumns) {
+                int uv = row + column;
+                output[v++] = source[uv];
+                output[u++] = source[uv + 1];
+            }
+        }
+    }
+
+    private void argbRows(byte[] source, int fromRow, int toRow) {
+        int i = fromRow * mOutputWidth;
+        for (int oy = fromRow; oy < toRow; oy++) {
+            int yRow = mYRows[oy];
+            int uvRow = mUvPixelRows[oy];
+            for (int ox = 0; ox < mOutputWidth; ox++) {
+                int uv = uvRow + mUvPixelColumns[ox];
+                mArgb[i++] = yuvToArgb(source[yRow + mYColumns[ox]] & 0xff, source[uv + 1] & 0xff, source[uv] & 0xff);
+            }
+        }
+    }
+
+    private void argbRowsFromNv21(byte[] nv21, int fromRow, int toRow) {
+        int outputSize = mOutputWidth * mOutputHeight;
+        int i = fromRow * mOutputWidth;
+        for (int oy = fromRow; oy < toRow; oy++) {
+            int uvRow = outputSize + (oy >> 1) * mOutputWidth;
+            for (int ox = 0; ox < mOutputWidth; ox++) {
+                int uv = uvRow + (ox & ~1);
+                mArgb[i] = yuvToArgb(nv21[i] & 0xff, nv21[uv + 1] & 0xff, nv21[uv] & 0xff);
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Averages a block of {@code mBoxFactor} by {@code mBoxFactor} samples.
+     * @param offset first sample of the block
+     * @param step distance between samples of a row, 2 for interleaved chroma
+     */
+    private int boxAverage(byte[] source, int offset, int step) {
+        int sum = 0;
+        for (int dy = 0; dy < mBoxFactor; dy++) {
+            int rowOffset = offset + dy * mSourceWidth;
+            for (int dx = 0; dx < mBoxFactor; dx++) {
+                sum += source[rowOffset + dx * step] & 0xff;
+            }
+        }
+        return (sum + (1 << (mBoxShift - 1))) >> mBoxShift;
+    }
+
+    /**
+     * Maps an output coordinate back to the source pixel it is sampled from.
+     * @param o output column, or output row when {@code vertical} is set
+     * @param vertical whether {@code o} is a row of the output
+     * @return the source point relative to the crop origin, or the origin of its block when averaging blocks,
+     * only the coordinate driven by {@code o} is meaningful
+     */
+    private int[] sourcePoint(int o, boolean vertical) {
+        int ox = vertical ? 0 : o;
+        int oy = vertical ? o : 0;
+        int u;
+        int v;
+        switch (mRotation) {
+            case 90:
+                u = oy;
+                v = mScaledHeight - 1 - ox;
+                break;
+            case 180:
+                u = mScaledWidth - 1 - ox;
+                v = mScaledHeight - 1 - oy;
+                break;
+            case 270:
+                u = mScaledWidth - 1 - oy;
+                v = ox;
+                break;
+            default:
+                u = ox;
+                v = oy;
+                break;
+        }
+        if (mMirror) {
+            u = mScaledWidth - 1 - u;
+        }
+        if (mBoxFactor > 1) {
+            return new int[] { u * mBoxFactor, v * mBoxFactor };
+        }
+        // samples the source pixel under the centre of the scaled pixel
+        int x = (int) (((2L * u + 1) * mCropWidth) / (2L * mScaledWidth));
+        int y = (int) (((2L * v + 1) * mCropHeight) / (2L * mScaledHeight));
+        return new int[] { Math.min(x, mCropWidth - 1), Math.min(y, mCropHeight - 1) };
+    }
+
+    private static int yuvToArgb(int y, int u, int v) {
+        // ITU-R BT.601 video range, same fixed point coefficients as the platform decoder
+        int y1192 = 1192 * Math.max(0, y - 16);
+        u -= 128;
+        v -= 128;
+        int r = clamp(y1192 + 1634 * v);
+        int g = clamp(y1192 - 833 * v - 400 * u);
+        int b = clamp(y1192 + 2066 * u);
+        return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 262143);
+    }
+}
@@ -0,0 +1,176 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.util.ArrayDeque;
+
+/**
+ * Single thread consuming frames in submission order from a bounded queue.
+ * When the queue is full the {@link DropPolicy} decides whether the oldest queued frame,
+ * the submitted frame or the submitting thread gives way.
+ * Handlers own the frames they receive, processed or dropped, and must not throw.
+ */
+public class FrameWorker<T> {
+    private static final long JOIN_TIMEOUT_MS = 500;
+
+    public enum DropPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        BLOCK;
+
+        public static DropPolicy fromString(String option) {
+            if ("drop-newest".equals(option)) {
+                return DROP_NEWEST;
+            } else if ("block".equals(option)) {
+                return BLOCK;
+            } else {
+                return DROP_OLDEST;
+            }
+        }
+    }
+
+    public interface FrameHandler<T> {
+        void onFrame(T frame);
+
+        void onDropped(T frame);
+    }
+
+    private final String mName;
+    private final int mCapacity;
+    private final DropPolicy mDropPolicy;
+    private final FrameHandler<T> mHandler;
+    private final ArrayDeque<T> mQueue;
+    private Thread mThread = null;
+    private boolean mRunning = false;
+    private long mDroppedCount = 0;
+
+    public FrameWorker(String name, int capacity, DropPolicy dropPolicy, FrameHandler<T> handler) {
+        mName = name;
+        mCapacity = Math.max(1, capacity);
+        mDropPolicy = dropPolicy;
+        mHandler = handler;
+        mQueue = new ArrayDeque<>(mCapacity);
+    }
+
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(this::loop, mName);
+        mThread.start();
+    }
+
+    /**
+     * Queues a frame for processing.
+     * @return false when the submitted frame was dropped.
+     */
+    public boolean submit(T frame) {
+        T dropped = null;
+        synchronized (this) {
+            if (mRunning && mQueue.size() >= mCapacity) {
+                switch (mDropPolicy) {
+                    case DROP_NEWEST:
+                        dropped = frame;
+                        break;
+                    case BLOCK:
+                        while (mRunning && mQueue.size() >= mCapacity) {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                break;
+                            }
+                        }
+                        if (mQueue.size() >= mCapacity) {
+                            dropped = frame;
+                        }
+                        break;
+                    default:
+                        dropped = mQueue.poll();
+                        break;
+                }
+            }
+            if (!mRunning) {
+                dropped = frame;
+            }
+            if (dropped != null) {
+                mDroppedCount++;
+            }
+            if (dropped != frame) {
+                mQueue.offer(frame);
+                notifyAll();
+            }
+        }
+        if (dropped != null) {
+            mHandler.onDropped(dropped);
+        }
+        return dropped != frame;
+    }
+
+    /**
+     * Stops the worker after the frame in progress, queued frames are dropped.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!mRunning) {
+                return;
+            }
+            mRunning = false;
+            thread = mThread;
+            mThread = null;
+            notifyAll();
+        }
+        if (thread != Thread.currentThread()) {
+            try {
+                thread.join(JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drain();
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    private void drain() {
+        T frame;
+        while ((frame = poll()) != null) {
+            mHandler.onDropped(frame);
+        }
+    }
+
+    private synchronized T poll() {
+        T frame = mQueue.poll();
+        notifyAll();
+        return frame;
+    }
+
+    private synchronized T take() throws InterruptedException {
+        while (mRunning && mQueue.isEmpty()) {
+            wait();
+        }
+        if (!mRunning) {
+            return null;
+        }
+        T frame = mQueue.poll();
+        notifyAll();
+        return frame;
+    }
+
+    private void loop() {
+        while (true) {
+            T frame;
+            try {
+                frame = take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (frame == null) {
+                break;
+            }
+            mHandler.onFrame(frame);
+        }
+    }
+}
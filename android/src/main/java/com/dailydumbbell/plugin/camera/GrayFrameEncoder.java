@@ -0,0 +1,46 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Raw 8 bit grayscale output taken from the luma plane, 1 byte per pixel.
+ * In analysis mode the brightness statistics of every frame are computed in the same pass.
+ */
+public class GrayFrameEncoder implements FrameEncoder {
+    private final FrameOutputStream mOutputStream = new FrameOutputStream();
+    private final LumaStats mLumaStats;
+
+    public GrayFrameEncoder() {
+        this(false);
+    }
+
+    public GrayFrameEncoder(boolean analyze) {
+        mLumaStats = analyze ? new LumaStats() : null;
+    }
+
+    /**
+     * @return statistics of the last encoded frame, null when not analyzing.
+     */
+    public LumaStats getLumaStats() {
+        return mLumaStats;
+    }
+
+    @Override
+    public String getFormat() {
+        return "gray";
+    }
+
+    @Override
+    public String getMimeType() {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public FrameOutputStream encode(FrameTransformer transformer, byte[] source) {
+        byte[] output = mOutputStream.setSize(transformer.getOutputWidth() * transformer.getOutputHeight());
+        if (mLumaStats != null) {
+            transformer.toLuma(source, output, mLumaStats);
+        } else {
+            transformer.toLuma(source, output);
+        }
+        return mOutputStream;
+    }
+}
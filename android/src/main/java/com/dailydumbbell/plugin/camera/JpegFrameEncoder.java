@@ -0,0 +1,34 @@
+package com.dailydumbbell.plugin.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+public class JpegFrameEncoder implements FrameEncoder {
+    private final int mQuality;
+    private final FrameOutputStream mOutputStream = new FrameOutputStream();
+
+    public JpegFrameEncoder(int quality) {
+        mQuality = quality;
+    }
+
+    @Override
+    public String getFormat() {
+        return "jpeg";
+    }
+
+    @Override
+    public String getMimeType() {
+        return "image/jpeg";
+    }
+
+    @Override
+    public FrameOutputStream encode(FrameTransformer transformer, byte[] source) {
+        int width = transformer.getOutputWidth();
+        int height = transformer.getOutputHeight();
+        YuvImage yuvImage = new YuvImage(transformer.toNv21(source), ImageFormat.NV21, width, height, null);
+        mOutputStream.reset();
+        yuvImage.compressToJpeg(new Rect(0, 0, width, height), mQuality, mOutputStream);
+        return mOutputStream;
+    }
+}
@@ -0,0 +1,70 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Keeps only the newest raw frame, older frames go straight back to their buffer pool.
+ * Together with the buffer the camera is filling this double buffers the preview,
+ * so publishing a frame costs a reference swap and nothing is converted until a frame is borrowed.
+ */
+public class LatestFrameSlot {
+    private RawFrame mLatest = null;
+    private RawFrame mBorrowed = null;
+    private long mPublishedCount = 0;
+
+    public void publish(RawFrame frame) {
+        RawFrame previous;
+        synchronized (this) {
+            previous = mLatest;
+            mLatest = frame;
+            mPublishedCount++;
+            if (previous == mBorrowed) {
+                previous = null;
+            }
+        }
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Lends the newest frame, it stays valid until {@link #giveBack(RawFrame)} is called.
+     * @return null when no frame was published yet.
+     */
+    public synchronized RawFrame borrow() {
+        mBorrowed = mLatest;
+        return mBorrowed;
+    }
+
+    public void giveBack(RawFrame frame) {
+        boolean release;
+        synchronized (this) {
+            if (mBorrowed == frame) {
+                mBorrowed = null;
+            }
+            release = frame != mLatest;
+        }
+        if (release) {
+            frame.release();
+        }
+    }
+
+    /**
+     * Drops the newest frame, a borrowed frame is released when given back.
+     */
+    public void clear() {
+        RawFrame latest;
+        synchronized (this) {
+            latest = mLatest;
+            mLatest = null;
+            if (latest == mBorrowed) {
+                latest = null;
+            }
+        }
+        if (latest != null) {
+            latest.release();
+        }
+    }
+
+    public synchronized long getPublishedCount() {
+        return mPublishedCount;
+    }
+}
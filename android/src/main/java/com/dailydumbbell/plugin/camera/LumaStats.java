@@ -0,0 +1,66 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.util.Arrays;
+
+/**
+ * Brightness statistics of a grayscale frame, filled by {@link FrameTransformer#toLuma(byte[], byte[], LumaStats)}
+ * in the same pass that extracts the luma plane. Instances are reused from frame to frame.
+ */
+public class LumaStats {
+    public static final int HISTOGRAM_BINS = 32;
+    private static final int HISTOGRAM_SHIFT = 3;
+
+    private final int[] mHistogram = new int[HISTOGRAM_BINS];
+    private double mMean = 0;
+    private double mSharpness = 0;
+
+    /**
+     * @return the histogram bin of an 8 bit luma value.
+     */
+    static int bin(int luma) {
+        return luma >> HISTOGRAM_SHIFT;
+    }
+
+    /**
+     * Clears the histogram for a new frame.
+     * @return the histogram to accumulate into
+     */
+    int[] reset() {
+        Arrays.fill(mHistogram, 0);
+        mMean = 0;
+        mSharpness = 0;
+        return mHistogram;
+    }
+
+    /**
+     * @param sum sum of every luma value
+     * @param pixels number of pixels
+     * @param gradient sum of squared differences with the left and upper neighbours
+     * @param gradients number of pixels having both neighbours
+     */
+    void set(long sum, int pixels, long gradient, int gradients) {
+        mMean = pixels > 0 ? sum / (double) pixels : 0;
+        mSharpness = gradients > 0 ? gradient / (double) gradients : 0;
+    }
+
+    /**
+     * @return the average luma, from 0 to 255.
+     */
+    public double getMean() {
+        return mMean;
+    }
+
+    /**
+     * @return the mean squared gradient, higher for sharper frames. Only comparable between frames of the same size.
+     */
+    public double getSharpness() {
+        return mSharpness;
+    }
+
+    /**
+     * @return pixel counts of {@link #HISTOGRAM_BINS} equal luma ranges, valid until the next frame.
+     */
+    public int[] getHistogram() {
+        return mHistogram;
+    }
+}
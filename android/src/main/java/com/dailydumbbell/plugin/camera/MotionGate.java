@@ -0,0 +1,127 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Skips frames that barely changed since the last frame let through, before any conversion work is done.
+ * Changes are measured on a sparse grid of luma samples, read straight from the NV21 frame.
+ * A frame is still let through every keep alive interval so that consumers know the preview is running.
+ */
+public class MotionGate {
+    public static final int GRID_COLUMNS = 32;
+    public static final int GRID_ROWS = 24;
+
+    private final double mThreshold;
+    private final long mKeepAliveNanos;
+    private final int[] mSamples = new int[GRID_COLUMNS * GRID_ROWS];
+    private final int[] mReference = new int[GRID_COLUMNS * GRID_ROWS];
+    private boolean mHasReference = false;
+    private long mLastPassNanos = 0;
+    private volatile long mPassedCount = 0;
+    private volatile long mSkippedCount = 0;
+    private volatile long mKeepAliveCount = 0;
+    private volatile double mLastDifference = 0;
+
+    /**
+     * @param threshold mean absolute luma difference, from 0 to 255, a frame needs to be let through,
+     * 0 disables the gate
+     * @param keepAliveMs interval after which a frame is let through anyway, 0 to never force one
+     */
+    public MotionGate(double threshold, long keepAliveMs) {
+        mThreshold = Math.max(0, threshold);
+        mKeepAliveNanos = Math.max(0, keepAliveMs) * 1000000L;
+    }
+
+    public boolean isEnabled() {
+        return mThreshold > 0;
+    }
+
+    /**
+     * Compares the frame with the last frame let through, which it replaces when accepted.
+     * Only called from the frame worker.
+     * @return false when the frame should be skipped.
+     */
+    public boolean accept(byte[] nv21, int width, int height, long nowNanos) {
+        return accept(nv21, width, 0, 0, width, height, nowNanos);
+    }
+
+    /**
+     * Same as {@link #accept(byte[], int, int, long)}, sampling only a region of the frame
+     * so that motion outside of the transformed crop lets no frame through.
+     * @param width width of the whole frame
+     */
+    public boolean accept(byte[] nv21, int width, int cropX, int cropY, int cropWidth, int cropHeight, long nowNanos) {
+        if (mThreshold <= 0) {
+            return true;
+        }
+        int i = 0;
+        for (int row = 0; row < GRID_ROWS; row++) {
+            int offset = (cropY + (int) (((2L * row + 1) * cropHeight) / (2 * GRID_ROWS))) * width + cropX;
+            for (int column = 0; column < GRID_COLUMNS; column++) {
+                mSamples[i++] = nv21[offset + (int) (((2L * column + 1) * cropWidth) / (2 * GRID_COLUMNS))] & 0xff;
+            }
+        }
+
+        double difference = Double.MAX_VALUE;
+        if (mHasReference) {
+            long sum = 0;
+            for (int j = 0; j < mSamples.length; j++) {
+                sum += Math.abs(mSamples[j] - mReference[j]);
+            }
+            difference = sum / (double) mSamples.length;
+            mLastDifference = difference;
+        }
+
+        boolean keepAlive = mKeepAliveNanos > 0 && nowNanos - mLastPassNanos >= mKeepAliveNanos;
+        if (difference < mThreshold && !keepAlive) {
+            mSkippedCount++;
+            return false;
+        }
+        if (difference < mThreshold) {
+            mKeepAliveCount++;
+        }
+        System.arraycopy(mSamples, 0, mReference, 0, mSamples.length);
+        mHasReference = true;
+        mLastPassNanos = nowNanos;
+        mPassedCount++;
+        return true;
+    }
+
+    /**
+     * @return frames let through, keep alive frames included.
+     */
+    public long getPassedCount() {
+        return mPassedCount;
+    }
+
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * @return frames let through only because the keep alive interval elapsed.
+     */
+    public long getKeepAliveCount() {
+        return mKeepAliveCount;
+    }
+
+    /**
+     * @return mean absolute luma difference of the last frame compared.
+     */
+    public double getLastDifference() {
+        return mLastDifference;
+    }
+
+    /**
+     * @return the share of compared frames that were skipped, from 0 to 1.
+     */
+    public double getSkipRatio() {
+        long passed = mPassedCount;
+        long skipped = mSkippedCount;
+        return passed + skipped > 0 ? skipped / (double) (passed + skipped) : 0;
+    }
+
+    public void resetCounters() {
+        mPassedCount = 0;
+        mSkippedCount = 0;
+        mKeepAliveCount = 0;
+    }
+}
@@ -0,0 +1,182 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Frame source filling NV21 frames on its own thread at a fixed rate, for tests and benchmarks without a camera.
+ * Frames are written into a {@link PreviewBufferPool} like camera frames are, when every buffer
+ * is still held by the consumer the frame is skipped, as the camera would.
+ */
+public abstract class PacedFrameSource implements FrameSource {
+    private static final long JOIN_TIMEOUT_MS = 500;
+    // ImageFormat.NV21, kept as a literal so the class does not depend on the Android framework
+    private static final int NV21 = 0x11;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFps;
+    private final PreviewBufferPool mPool;
+    private final ArrayDeque<byte[]> mFree = new ArrayDeque<>();
+    private FrameListener mListener = null;
+    private Thread mThread = null;
+    private volatile boolean mRunning = false;
+    private long mSequence = 0;
+    private long mSkippedCount = 0;
+    private IOException mError = null;
+
+    /**
+     * @param fps frames per second, 0 produces frames as fast as they are released
+     * @param bufferCount number of frames the consumer can hold at once
+     */
+    protected PacedFrameSource(int width, int height, int fps, int bufferCount) {
+        mWidth = width;
+        mHeight = height;
+        mFps = Math.max(0, fps);
+        mPool = new PreviewBufferPool(width * height * 3 / 2, bufferCount);
+    }
+
+    /**
+     * Writes the next frame.
+     * @return false when there are no more frames
+     */
+    protected abstract boolean fill(byte[] buffer, long sequence) throws IOException;
+
+    protected void onStart() throws IOException {
+        // nothing to open
+    }
+
+    protected void onStop() {
+        // nothing to close
+    }
+
+    @Override
+    public synchronized void start(FrameListener listener) throws IOException {
+        if (mRunning) {
+            return;
+        }
+        onStart();
+        mListener = listener;
+        mError = null;
+        mRunning = true;
+        mPool.attach(this::onBufferAvailable);
+        mThread = new Thread(this::loop, getClass().getSimpleName());
+        mThread.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (mThread == null) {
+                return;
+            }
+            mRunning = false;
+            thread = mThread;
+            mThread = null;
+            notifyAll();
+        }
+        if (thread != Thread.currentThread()) {
+            thread.interrupt();
+            try {
+                thread.join(JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mPool.detach();
+        synchronized (this) {
+            mFree.clear();
+        }
+        onStop();
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFps() {
+        return mFps;
+    }
+
+    public PreviewBufferPool getBufferPool() {
+        return mPool;
+    }
+
+    /**
+     * @return frames skipped because the consumer held every buffer.
+     */
+    public synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * @return the error that ended the source early, if any.
+     */
+    public synchronized IOException getError() {
+        return mError;
+    }
+
+    private synchronized void onBufferAvailable(byte[] buffer) {
+        mFree.add(buffer);
+        notifyAll();
+    }
+
+    private synchronized byte[] nextBuffer() throws InterruptedException {
+        if (mFps == 0) {
+            while (mRunning && mFree.isEmpty()) {
+                wait();
+            }
+        }
+        byte[] buffer = mFree.poll();
+        if (buffer == null && mRunning) {
+            mSkippedCount++;
+        }
+        return buffer;
+    }
+
+    private void loop() {
+        long interval = mFps > 0 ? 1000000000L / mFps : 0;
+        long next = System.nanoTime();
+        try {
+            while (mRunning) {
+                if (interval > 0) {
+                    long delay = next - System.nanoTime();
+                    if (delay > 0) {
+                        Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                    }
+                    // a late frame does not make the following ones come in a burst
+                    next = Math.max(next + interval, System.nanoTime() - interval);
+                }
+                byte[] buffer = nextBuffer();
+                if (buffer == null) {
+                    continue;
+                }
+                mPool.onBufferDequeued(buffer);
+                long sequence = mSequence++;
+                if (!fill(buffer, sequence)) {
+                    mPool.release(buffer);
+                    break;
+                }
+                mListener.onFrame(new RawFrame(buffer, mWidth, mHeight, NV21, sequence, System.currentTimeMillis(), mPool));
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (IOException e) {
+            synchronized (this) {
+                mError = e;
+            }
+        }
+        mRunning = false;
+    }
+}
@@ -0,0 +1,100 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Fixed set of preview buffers shared with the camera.
+ * Buffers are queued to the camera once when the pool is attached, handed out
+ * with every preview frame and queued back only when {@link #release(byte[])}
+ * is called, so no frame data is allocated while previewing.
+ */
+public class PreviewBufferPool {
+
+    public interface BufferSink {
+        void onBufferAvailable(byte[] buffer);
+    }
+
+    private final byte[][] mBuffers;
+    private final int mBufferSize;
+    private BufferSink mSink = null;
+    private int mQueued = 0;
+    private long mFrameCount = 0;
+    private long mDryCount = 0;
+
+    public PreviewBufferPool(int bufferSize, int bufferCount) {
+        mBufferSize = bufferSize;
+        mBuffers = new byte[Math.max(1, bufferCount)][];
+        for (int i = 0; i < mBuffers.length; i++) {
+            mBuffers[i] = new byte[bufferSize];
+        }
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    public int getBufferCount() {
+        return mBuffers.length;
+    }
+
+    /**
+     * Queues every buffer to the given sink (usually {@code Camera::addCallbackBuffer}).
+     */
+    public synchronized void attach(BufferSink sink) {
+        mSink = sink;
+        mQueued = 0;
+        for (byte[] buffer : mBuffers) {
+            mQueued++;
+            sink.onBufferAvailable(buffer);
+        }
+    }
+
+    /**
+     * Stops handing buffers back, buffers released afterwards are simply kept.
+     */
+    public synchronized void detach() {
+        mSink = null;
+        mQueued = 0;
+    }
+
+    /**
+     * Must be called for every frame delivered by the camera.
+     * When the camera holds no more buffers it silently drops frames until one is released,
+     * which is counted as the pool running dry.
+     */
+    public synchronized void onBufferDequeued(byte[] buffer) {
+        if (mSink == null || !owns(buffer)) {
+            return;
+        }
+        mFrameCount++;
+        if (--mQueued <= 0) {
+            mQueued = 0;
+            mDryCount++;
+        }
+    }
+
+    /**
+     * Gives the buffer back to the camera once the frame has been fully processed.
+     */
+    public synchronized void release(byte[] buffer) {
+        if (mSink != null && owns(buffer)) {
+            mQueued++;
+            mSink.onBufferAvailable(buffer);
+        }
+    }
+
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public synchronized long getDryCount() {
+        return mDryCount;
+    }
+
+    private boolean owns(byte[] buffer) {
+        for (byte[] b : mBuffers) {
+            if (b == buffer) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,187 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.util.List;
+
+/**
+ * Preview size, frame rate and aspect ratio selection, free of any camera API so it can run on the JVM.
+ */
+public final class PreviewGeometry {
+    private static final double ASPECT_TOLERANCE = 0.1;
+
+    private PreviewGeometry() {}
+
+    /**
+     * Picks the supported size closest in height to the capture size, preferring sizes of the same aspect ratio.
+     * @param sizes supported sizes as {@code {width, height}} pairs
+     * @return index of the optimal size, -1 when there is none
+     */
+    public static int getOptimalPreviewSize(List<int[]> sizes, int captureWidth, int captureHeight) {
+        if (sizes == null) return -1;
+        double targetRatio = (double) captureWidth / captureHeight;
+
+        int optimalIndex = -1;
+        double minDiff = Double.MAX_VALUE;
+
+        // Try to find an size match aspect ratio and size
+        for (int i = 0; i < sizes.size(); i++) {
+            int[] size = sizes.get(i);
+            double ratio = (double) size[0] / size[1];
+            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
+            if (Math.abs(size[1] - captureHeight) < minDiff) {
+                optimalIndex = i;
+                minDiff = Math.abs(size[1] - captureHeight);
+            }
+        }
+
+        // Cannot find the one match the aspect ratio, ignore the requirement
+        if (optimalIndex < 0) {
+            minDiff = Double.MAX_VALUE;
+            for (int i = 0; i < sizes.size(); i++) {
+                int[] size = sizes.get(i);
+                if (Math.abs(size[1] - captureHeight) < minDiff) {
+                    optimalIndex = i;
+                    minDiff = Math.abs(size[1] - captureHeight);
+                }
+            }
+        }
+        return optimalIndex;
+    }
+
+    /**
+     * Picks a size equal to the canvas, so frames are not scaled at all, then a size that is an exact 2x or 4x multiple
+     * of the canvas, so frames are downscaled by averaging pixel blocks, and falls back to
+     * {@link #getOptimalPreviewSize(List, int, int)} when the camera supports neither.
+     * @param sizes supported sizes as {@code {width, height}} pairs
+     * @return index of the optimal size, -1 when there is none
+     */
+    public static int getOptimalPreviewSize(List<int[]> sizes, int captureWidth, int captureHeight, int canvasWidth, int canvasHeight) {
+        if (sizes == null) return -1;
+        if (canvasWidth > 0 || canvasHeight > 0) {
+            int optimalIndex = getClosestSize(sizes, captureWidth, captureHeight, canvasWidth, canvasHeight, FrameTransformPlan.SCALE_DIRECT);
+            if (optimalIndex < 0) {
+                optimalIndex = getClosestSize(sizes, captureWidth, captureHeight, canvasWidth, canvasHeight, FrameTransformPlan.SCALE_BOX);
+            }
+            if (optimalIndex >= 0) {
+                return optimalIndex;
+            }
+        }
+        return getOptimalPreviewSize(sizes, captureWidth, captureHeight);
+    }
+
+    /**
+     * @return index of the size of the capture aspect ratio closest in height to the capture size among those
+     * fitted into the canvas with the given {@link FrameTransformPlan#getScalePath() scale path}, -1 when there is none
+     */
+    private static int getClosestSize(List<int[]> sizes, int captureWidth, int captureHeight, int canvasWidth, int canvasHeight, String scalePath) {
+        double targetRatio = (double) captureWidth / captureHeight;
+        int optimalIndex = -1;
+        double minDiff = Double.MAX_VALUE;
+
+        for (int i = 0; i < sizes.size(); i++) {
+            int[] size = sizes.get(i);
+            double ratio = (double) size[0] / size[1];
+            if (captureHeight > 0 && Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
+            if (!FrameTransformPlan.fit(size[0], size[1], canvasWidth, canvasHeight, 0, false).getScalePath().equals(scalePath)) continue;
+            if (Math.abs(size[1] - captureHeight) < minDiff) {
+                optimalIndex = i;
+                minDiff = Math.abs(size[1] - captureHeight);
+            }
+        }
+        return optimalIndex;
+    }
+
+    /**
+     * Picks the largest supported picture size of the preview aspect ratio, or the largest size when none matches.
+     * @param sizes supported sizes as {@code {width, height}} pairs
+     * @return index of the largest size, -1 when there is none
+     */
+    public static int getLargestPictureSize(List<int[]> sizes, int previewWidth, int previewHeight) {
+        if (sizes == null) return -1;
+        double targetRatio = (double) previewWidth / previewHeight;
+        int largestIndex = -1;
+        int anyIndex = -1;
+        for (int i = 0; i < sizes.size(); i++) {
+            int[] size = sizes.get(i);
+            if (anyIndex < 0 || area(size) > area(sizes.get(anyIndex))) {
+                anyIndex = i;
+            }
+            double ratio = (double) size[0] / size[1];
+            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
+            if (largestIndex < 0 || area(size) > area(sizes.get(largestIndex))) {
+                largestIndex = i;
+            }
+        }
+        return largestIndex >= 0 ? largestIndex : anyIndex;
+    }
+
+    private static long area(int[] size) {
+        return (long) size[0] * size[1];
+    }
+
+    /**
+     * @param ranges supported preview fps ranges, scaled by 1000
+     * @return the range with the highest minimum whose maximum is closest to {@code fps}
+     */
+    public static int[] getOptimalFrameRate(List<int[]> ranges, int fps) {
+        int[] optimalFpsRange = ranges.get(0); // Default to the first range
+        int closestDifference = Integer.MAX_VALUE; // Initialize with the maximum possible difference
+
+        for (int[] range : ranges) {
+            // Prioritize higher minimum frame rate first
+            if (range[0] >= optimalFpsRange[0]) {
+                int currentDifference = Math.abs(range[1] - (fps * 1000)); // Compare max FPS to desired value
+                if (range[0] > optimalFpsRange[0] || currentDifference < closestDifference) {
+                    closestDifference = currentDifference;
+                    optimalFpsRange = range;
+                }
+            }
+        }
+
+        return optimalFpsRange;
+    }
+
+    /**
+     * Fits the target size to the aspect ratio of the original size.
+     * A non positive target dimension is derived from the other one, both non positive keep the original size.
+     */
+    public static int[] calculateAspectRatio(int origWidth, int origHeight, int targetWidth, int targetHeight) {
+        int newWidth = targetWidth;
+        int newHeight = targetHeight;
+
+        // If no new width or height were specified return the original bitmap
+        if (newWidth <= 0 && newHeight <= 0) {
+            newWidth = origWidth;
+            newHeight = origHeight;
+        }
+        // Only the width was specified
+        else if (newWidth > 0 && newHeight <= 0) {
+            newHeight = (int) (newWidth / (double) origWidth * origHeight);
+        }
+        // only the height was specified
+        else if (newWidth <= 0 && newHeight > 0) {
+            newWidth = (int) (newHeight / (double) origHeight * origWidth);
+        }
+        // If the user specified both a positive width and height
+        // (potentially different aspect ratio) then the width or height is
+        // scaled so that the image fits while maintaining aspect ratio.
+        // Alternatively, the specified width and height could have been
+        // kept and Bitmap.SCALE_TO_FIT specified when scaling, but this
+        // would result in whitespace in the new image.
+        else {
+            double newRatio = newWidth / (double) newHeight;
+            double origRatio = origWidth / (double) origHeight;
+
+            if (origRatio > newRatio) {
+                newHeight = (newWidth * origHeight) / origWidth;
+            } else if (origRatio < newRatio) {
+                newWidth = (newHeight * origWidth) / origHeight;
+            }
+        }
+
+        int[] widthHeight = new int[2];
+        widthHeight[0] = newWidth;
+        widthHeight[1] = newHeight;
+
+        return widthHeight;
+    }
+}
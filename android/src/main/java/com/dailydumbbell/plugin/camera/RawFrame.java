@@ -0,0 +1,67 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Preview frame as delivered by the camera, before any conversion.
+ * The data buffer may belong to a {@link PreviewBufferPool} and must be handed back
+ * with {@link #release()} once the frame is no longer used.
+ * Frames are reference counted, whoever keeps a frame past the call it was handed in
+ * calls {@link #retain()} and releases it when done, the buffer goes back to its pool with the last release.
+ */
+public class RawFrame {
+    public final byte[] data;
+    public final int width;
+    public final int height;
+    public final int format;
+    public final long sequence;
+    public final long timestamp;
+    // System.nanoTime() at capture, for latency measurements
+    public final long captureNanos;
+
+    private final PreviewBufferPool mPool;
+    private final AtomicInteger mReferences = new AtomicInteger(1);
+
+    public RawFrame(byte[] data, int width, int height, int format, long sequence, long timestamp, PreviewBufferPool pool) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.captureNanos = System.nanoTime();
+        mPool = pool;
+    }
+
+    /**
+     * Keeps the buffer out of its pool until a matching {@link #release()}.
+     * @throws IllegalStateException when the frame was already released
+     */
+    public RawFrame retain() {
+        int references;
+        do {
+            references = mReferences.get();
+            if (references <= 0) {
+                throw new IllegalStateException("Frame " + sequence + " was already released");
+            }
+        } while (!mReferences.compareAndSet(references, references + 1));
+        return this;
+    }
+
+    public void release() {
+        int references = mReferences.decrementAndGet();
+        if (references < 0) {
+            throw new IllegalStateException("Frame " + sequence + " was released more often than retained");
+        }
+        if (references == 0 && mPool != null) {
+            mPool.release(data);
+        }
+    }
+
+    /**
+     * @return references still held, 0 once the buffer went back to its pool.
+     */
+    public int getReferenceCount() {
+        return Math.max(0, mReferences.get());
+    }
+}
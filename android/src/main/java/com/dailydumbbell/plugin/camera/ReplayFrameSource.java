@@ -0,0 +1,69 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Replays NV21 frames recorded back to back in a file, each {@code width * height * 3 / 2} bytes long,
+ * as dumped from the preview callback. A trailing partial frame is ignored.
+ */
+public class ReplayFrameSource extends PacedFrameSource {
+    private final File mFile;
+    private final boolean mLoop;
+    private RandomAccessFile mInput = null;
+    private long mFrameCount = 0;
+
+    /**
+     * @param loop whether to start over at the end of the file rather than ending the source
+     */
+    public ReplayFrameSource(File file, int width, int height, int fps, int bufferCount, boolean loop) {
+        super(width, height, fps, bufferCount);
+        mFile = file;
+        mLoop = loop;
+    }
+
+    /**
+     * @return number of complete frames in the file, known once started.
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    @Override
+    protected void onStart() throws IOException {
+        RandomAccessFile input = new RandomAccessFile(mFile, "r");
+        long frameSize = getWidth() * getHeight() * 3L / 2;
+        mFrameCount = input.length() / frameSize;
+        if (mFrameCount == 0) {
+            input.close();
+            throw new IOException("No complete frame in " + mFile);
+        }
+        mInput = input;
+    }
+
+    @Override
+    protected boolean fill(byte[] buffer, long sequence) throws IOException {
+        long frame = sequence;
+        if (mLoop) {
+            frame %= mFrameCount;
+        } else if (frame >= mFrameCount) {
+            return false;
+        }
+        mInput.seek(frame * buffer.length);
+        mInput.readFully(buffer);
+        return true;
+    }
+
+    @Override
+    protected void onStop() {
+        if (mInput != null) {
+            try {
+                mInput.close();
+            } catch (IOException e) {
+                // ignored
+            }
+            mInput = null;
+        }
+    }
+}
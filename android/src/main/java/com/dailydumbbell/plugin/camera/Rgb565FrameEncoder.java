@@ -0,0 +1,31 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Raw RGB 565 output, 2 little endian bytes per pixel as in {@code Bitmap.Config.RGB_565}.
+ */
+public class Rgb565FrameEncoder implements FrameEncoder {
+    private final FrameOutputStream mOutputStream = new FrameOutputStream();
+
+    @Override
+    public String getFormat() {
+        return "rgb565";
+    }
+
+    @Override
+    public String getMimeType() {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public FrameOutputStream encode(FrameTransformer transformer, byte[] source) {
+        int[] argb = transformer.toArgb(source);
+        byte[] output = mOutputStream.setSize(argb.length * 2);
+        int i = 0;
+        for (int pixel : argb) {
+            int rgb565 = ((pixel >> 8) & 0xf800) | ((pixel >> 5) & 0x07e0) | ((pixel >> 3) & 0x001f);
+            output[i++] = (byte) rgb565;
+            output[i++] = (byte) (rgb565 >> 8);
+        }
+        return mOutputStream;
+    }
+}
@@ -0,0 +1,32 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Raw RGBA output, 4 bytes per pixel.
+ */
+public class RgbaFrameEncoder implements FrameEncoder {
+    private final FrameOutputStream mOutputStream = new FrameOutputStream();
+
+    @Override
+    public String getFormat() {
+        return "rgba";
+    }
+
+    @Override
+    public String getMimeType() {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public FrameOutputStream encode(FrameTransformer transformer, byte[] source) {
+        int[] argb = transformer.toArgb(source);
+        byte[] output = mOutputStream.setSize(argb.length * 4);
+        int i = 0;
+        for (int pixel : argb) {
+            output[i++] = (byte) (pixel >> 16);
+            output[i++] = (byte) (pixel >> 8);
+            output[i++] = (byte) pixel;
+            output[i++] = (byte) (pixel >>> 24);
+        }
+        return mOutputStream;
+    }
+}
@@ -0,0 +1,38 @@
+package com.dailydumbbell.plugin.camera;
+
+/**
+ * Generated NV21 frames: a luma gradient scrolling diagonally by one pixel per frame over slowly changing chroma,
+ * so consecutive frames differ everywhere and every frame can be recomputed from its sequence number.
+ */
+public class SyntheticFrameSource extends PacedFrameSource {
+
+    public SyntheticFrameSource(int width, int height, int fps, int bufferCount) {
+        super(width, height, fps, bufferCount);
+    }
+
+    @Override
+    protected boolean fill(byte[] buffer, long sequence) {
+        render(buffer, getWidth(), getHeight(), sequence);
+        return true;
+    }
+
+    /**
+     * Writes the frame with the given sequence number into an NV21 buffer.
+     */
+    public static void render(byte[] buffer, int width, int height, long sequence) {
+        int shift = (int) (sequence & 0xff);
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                buffer[i++] = (byte) (x + y + shift);
+            }
+        }
+        byte v = (byte) (128 + (shift >> 2));
+        byte u = (byte) (128 - (shift >> 2));
+        int end = width * height * 3 / 2;
+        while (i < end) {
+            buffer[i++] = v;
+            buffer[i++] = u;
+        }
+    }
+}
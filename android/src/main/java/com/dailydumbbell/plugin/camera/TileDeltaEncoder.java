@@ -0,0 +1,247 @@
+package com.dailydumbbell.plugin.camera;
+
+import java.util.Arrays;
+
+/**
+ * Delta frames made of the tiles that changed since the consumer last received them.
+ * The frame is transformed once, each tile gets a signature of 4 by 4 luma averages compared with the one
+ * of the tile last sent, and only the changed tiles are encoded with the wrapped encoder.
+ * Encoded tiles are concatenated, their position in the frame and in the data is kept in {@link #getTiles()}.
+ * Keyframes holding every tile go out on the first frame, every keyframe interval, on request or when the size changes.
+ * Tiles count as sent once encoded, callers request a keyframe whenever a frame does not reach the consumer.
+ */
+public class TileDeltaEncoder implements FrameEncoder {
+    // signature cells per tile side
+    private static final int CELLS = 4;
+    // tile fields, as {x, y, width, height, offset, size}
+    public static final int TILE_X = 0;
+    public static final int TILE_Y = 1;
+    public static final int TILE_WIDTH = 2;
+    public static final int TILE_HEIGHT = 3;
+    public static final int TILE_OFFSET = 4;
+    public static final int TILE_SIZE = 5;
+
+    private final FrameEncoder mTileEncoder;
+    private final int mTileSize;
+    private final int mCellSize;
+    private final int mThreshold;
+    private final int mKeyframeInterval;
+    private final FrameOutputStream mOutputStream = new FrameOutputStream();
+
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private int mTilesX;
+    private int mTilesY;
+    private int mCellsX;
+    private int mCellsY;
+    private FrameTransformer[] mTileTransformers;
+    private int[] mCellSums;
+    private int[] mCellCounts;
+    // signature of every cell as last sent to the consumer
+    private int[] mSentCells;
+    private int[][] mTiles;
+    private int mTileCount = 0;
+    private boolean mKeyframe = false;
+    private long mFramesSinceKeyframe = 0;
+    private volatile boolean mKeyframeRequested = true;
+    private volatile long mSentTileCount = 0;
+    private volatile long mFrameTileCount = 0;
+    private volatile long mKeyframeCount = 0;
+
+    /**
+     * @param tileEncoder encodes every changed tile
+     * @param tileSize tile side in output pixels, rounded down to a multiple of {@code 2 * 4}
+     * @param threshold luma difference, from 0 to 255, of any signature cell for its tile to be sent again
+     * @param keyframeInterval frames between keyframes, 0 to only send them on request
+     */
+    public TileDeltaEncoder(FrameEncoder tileEncoder, int tileSize, int threshold, int keyframeInterval) {
+        mTileEncoder = tileEncoder;
+        mTileSize = Math.max(2 * CELLS, tileSize - tileSize % (2 * CELLS));
+        mCellSize = mTileSize / CELLS;
+        mThreshold = Math.max(0, threshold);
+        mKeyframeInterval = Math.max(0, keyframeInterval);
+    }
+
+    @Override
+    public String getFormat() {
+        return mTileEncoder.getFormat();
+    }
+
+    @Override
+    public String getMimeType() {
+        // concatenated tiles, split with their offsets and sizes
+        return "application/octet-stream";
+    }
+
+    /**
+     * Sends every tile with the next frame.
+     */
+    public void requestKeyframe() {
+        mKeyframeRequested = true;
+    }
+
+    /**
+     * @return whether the last frame holds every tile.
+     */
+    public boolean isKeyframe() {
+        return mKeyframe;
+    }
+
+    /**
+     * @return number of tiles in the last frame, 0 when nothing changed.
+     */
+    public int getTileCount() {
+        return mTileCount;
+    }
+
+    /**
+     * @return tiles of the last frame as {x, y, width, height, offset, size}, only the first {@link #getTileCount()}
+     * are meaningful, valid until the next frame.
+     */
+    public int[][] getTiles() {
+        return mTiles;
+    }
+
+    /**
+     * @return tiles sent since created.
+     */
+    public long getSentTileCount() {
+        return mSentTileCount;
+    }
+
+    /**
+     * @return the share of tiles sent since created, from 0 to 1.
+     */
+    public double getSentTileRatio() {
+        long frameTiles = mFrameTileCount;
+        return frameTiles > 0 ? mSentTileCount / (double) frameTiles : 0;
+    }
+
+    public long getKeyframeCount() {
+        return mKeyframeCount;
+    }
+
+    @Override
+    public FrameOutputStream encode(FrameTransformer transformer, byte[] source) {
+        int width = transformer.getOutputWidth();
+        int height = transformer.getOutputHeight();
+        if (width != mWidth || height != mHeight) {
+            configure(width, height);
+        }
+        byte[] nv21 = transformer.toNv21(source);
+        computeSignatures(nv21);
+
+        mKeyframe = mKeyframeRequested || (mKeyframeInterval > 0 && mFramesSinceKeyframe >= mKeyframeInterval);
+        if (mKeyframe) {
+            mKeyframeRequested = false;
+            mFramesSinceKeyframe = 0;
+            mKeyframeCount++;
+        }
+        mFramesSinceKeyframe++;
+
+        mOutputStream.reset();
+        mTileCount = 0;
+        int tile = 0;
+        for (int ty = 0; ty < mTilesY; ty++) {
+            for (int tx = 0; tx < mTilesX; tx++, tile++) {
+                if (!mKeyframe && !hasChanged(tx, ty)) {
+                    continue;
+                }
+                markSent(tx, ty);
+                FrameTransformer tileTransformer = mTileTransformers[tile];
+                FrameTransformPlan plan = tileTransformer.getPlan();
+                FrameOutputStream encoded = mTileEncoder.encode(tileTransformer, nv21);
+                int[] entry = mTiles[mTileCount++];
+                entry[TILE_X] = plan.cropX;
+                entry[TILE_Y] = plan.cropY;
+                entry[TILE_WIDTH] = plan.cropWidth;
+                entry[TILE_HEIGHT] = plan.cropHeight;
+                entry[TILE_OFFSET] = mOutputStream.size();
+                entry[TILE_SIZE] = encoded.size();
+                mOutputStream.write(encoded.getBuffer(), 0, encoded.size());
+            }
+        }
+        mFrameTileCount += tile;
+        mSentTileCount += mTileCount;
+        return mOutputStream;
+    }
+
+    private void configure(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mTilesX = (width + mTileSize - 1) / mTileSize;
+        mTilesY = (height + mTileSize - 1) / mTileSize;
+        mCellsX = (width + mCellSize - 1) / mCellSize;
+        mCellsY = (height + mCellSize - 1) / mCellSize;
+        mCellSums = new int[mCellsX * mCellsY];
+        mCellCounts = new int[mCellsX * mCellsY];
+        mSentCells = new int[mCellsX * mCellsY];
+        for (int cy = 0; cy < mCellsY; cy++) {
+            for (int cx = 0; cx < mCellsX; cx++) {
+                int cellWidth = Math.min(mCellSize, width - cx * mCellSize);
+                int cellHeight = Math.min(mCellSize, height - cy * mCellSize);
+                mCellCounts[cy * mCellsX + cx] = cellWidth * cellHeight;
+            }
+        }
+        mTileTransformers = new FrameTransformer[mTilesX * mTilesY];
+        mTiles = new int[mTilesX * mTilesY][6];
+        for (int ty = 0; ty < mTilesY; ty++) {
+            for (int tx = 0; tx < mTilesX; tx++) {
+                int x = tx * mTileSize;
+                int y = ty * mTileSize;
+                int tileWidth = Math.min(mTileSize, width - x);
+                int tileHeight = Math.min(mTileSize, height - y);
+                // tiles are direct crops of the transformed frame
+                FrameTransformer tileTransformer = new FrameTransformer();
+                tileTransformer.configure(new FrameTransformPlan(width, height, x, y, tileWidth, tileHeight, tileWidth, tileHeight, 0, false));
+                mTileTransformers[ty * mTilesX + tx] = tileTransformer;
+            }
+        }
+        mKeyframeRequested = true;
+    }
+
+    /**
+     * Averages the luma plane over every signature cell, in a single pass.
+     */
+    private void computeSignatures(byte[] nv21) {
+        Arrays.fill(mCellSums, 0);
+        int i = 0;
+        for (int y = 0; y < mHeight; y++) {
+            int cellRow = (y / mCellSize) * mCellsX;
+            for (int cx = 0; cx < mCellsX; cx++) {
+                int end = Math.min(mWidth, (cx + 1) * mCellSize) - cx * mCellSize;
+                int sum = 0;
+                for (int x = 0; x < end; x++) {
+                    sum += nv21[i++] & 0xff;
+                }
+                mCellSums[cellRow + cx] += sum;
+            }
+        }
+        for (int cell = 0; cell < mCellSums.length; cell++) {
+            mCellSums[cell] /= mCellCounts[cell];
+        }
+    }
+
+    private boolean hasChanged(int tx, int ty) {
+        int endY = Math.min(mCellsY, (ty + 1) * CELLS);
+        int endX = Math.min(mCellsX, (tx + 1) * CELLS);
+        for (int cy = ty * CELLS; cy < endY; cy++) {
+            for (int cx = tx * CELLS; cx < endX; cx++) {
+                int cell = cy * mCellsX + cx;
+                if (Math.abs(mCellSums[cell] - mSentCells[cell]) > mThreshold) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void markSent(int tx, int ty) {
+        int endY = Math.min(mCellsY, (ty + 1) * CELLS);
+        int endX = Math.min(mCellsX, (tx + 1) * CELLS);
+        for (int cy = ty * CELLS; cy < endY; cy++) {
+            int row = cy * mCellsX;
+            System.arraycopy(mCellSums, row + tx * CELLS, mSentCells, row + tx * CELLS, endX - tx * CELLS);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.dailydumbbell.plugin.camera;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+public class WebpFrameEncoder implements FrameEncoder {
+    private final int mQuality;
+    private final FrameOutputStream mOutputStream = new FrameOutputStream();
+    private Bitmap mBitmap = null;
+
+    public WebpFrameEncoder(int quality) {
+        mQuality = quality;
+    }
+
+    @Override
+    public String getFormat() {
+        return "webp";
+    }
+
+    @Override
+    public String getMimeType() {
+        return "image/webp";
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public FrameOutputStream encode(FrameTransformer transformer, byte[] source) {
+        int width = transformer.getOutputWidth();
+        int height = transformer.getOutputHeight();
+        if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        mBitmap.setPixels(transformer.toArgb(source), 0, width, 0, 0, width, height);
+
+        Bitmap.CompressFormat format = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+            ? Bitmap.CompressFormat.WEBP_LOSSY
+            : Bitmap.CompressFormat.WEBP;
+        mOutputStream.reset();
+        mBitmap.compress(format, mQuality, mOutputStream);
+        return mOutputStream;
+    }
+}
@@ -0,0 +1,53 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class CameraCapabilitiesTest {
+
+    @Test
+    public void roundTripsThroughJSON() throws Exception {
+        CameraCapabilities capabilities = capabilities(1);
+        // read back from the string kept in the preferences
+        CameraCapabilities restored = CameraCapabilities.fromJSON(new JSONObject(capabilities.toJSON().toString()));
+
+        assertEquals(1, restored.cameraId);
+        assertEquals(1, restored.facing);
+        assertEquals(270, restored.orientation);
+        assertEquals(2, restored.previewSizes.size());
+        assertArrayEquals(new int[] { 1280, 720 }, restored.previewSizes.get(0));
+        assertArrayEquals(new int[] { 640, 480 }, restored.previewSizes.get(1));
+        assertEquals(1, restored.fpsRanges.size());
+        assertArrayEquals(new int[] { 15000, 30000 }, restored.fpsRanges.get(0));
+        assertEquals(capabilities.focusModes, restored.focusModes);
+        assertEquals(capabilities.flashModes, restored.flashModes);
+    }
+
+    @Test
+    public void roundTripsEmptyLists() throws Exception {
+        List<String> none = Arrays.asList();
+        CameraCapabilities capabilities = new CameraCapabilities(0, 0, 90, Arrays.asList(), Arrays.asList(), none, none);
+        CameraCapabilities restored = CameraCapabilities.fromJSON(new JSONObject(capabilities.toJSON().toString()));
+
+        assertTrue(restored.previewSizes.isEmpty());
+        assertTrue(restored.fpsRanges.isEmpty());
+        assertTrue(restored.focusModes.isEmpty());
+        assertTrue(restored.flashModes.isEmpty());
+    }
+
+    static CameraCapabilities capabilities(int cameraId) {
+        return new CameraCapabilities(
+            cameraId,
+            1,
+            270,
+            Arrays.asList(new int[] { 1280, 720 }, new int[] { 640, 480 }),
+            Arrays.asList(new int[] { 15000, 30000 }),
+            Arrays.asList("auto", "continuous-video"),
+            Arrays.asList("off", "torch")
+        );
+    }
+}
@@ -0,0 +1,42 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CapabilityCacheTest {
+
+    @Test
+    public void keepsCapabilitiesOfTheSameBuild() {
+        MemoryPreferences preferences = new MemoryPreferences();
+        new CapabilityCache(null, preferences, "build-1").put(CameraCapabilitiesTest.capabilities(0));
+
+        CameraCapabilities capabilities = new CapabilityCache(null, preferences, "build-1").get(0);
+        assertNotNull(capabilities);
+        assertEquals(270, capabilities.orientation);
+        assertEquals(CameraCapabilitiesTest.capabilities(0).flashModes, capabilities.flashModes);
+    }
+
+    @Test
+    public void clearsCapabilitiesWhenTheFingerprintChanges() {
+        MemoryPreferences preferences = new MemoryPreferences();
+        new CapabilityCache(null, preferences, "build-1").put(CameraCapabilitiesTest.capabilities(0));
+        preferences.values.put("cameras", "[1,270]");
+
+        CapabilityCache cache = new CapabilityCache(null, preferences, "build-2");
+        assertNull(cache.get(0));
+        assertEquals("build-2", preferences.getString("fingerprint", null));
+        assertFalse(preferences.contains("cameras"));
+    }
+
+    @Test
+    public void readsThePreferencesOnFirstUseOnly() {
+        MemoryPreferences preferences = new MemoryPreferences();
+        preferences.values.put("fingerprint", "build-1");
+        CapabilityCache cache = new CapabilityCache(null, preferences, "build-2");
+        // nothing is read or cleared until the cache is used
+        assertEquals("build-1", preferences.getString("fingerprint", null));
+        assertNull(cache.get(0));
+        assertEquals("build-2", preferences.getString("fingerprint", null));
+    }
+}
@@ -0,0 +1,87 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+public class ExifOrientationStreamTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+
+    @Test
+    public void insertsTheSegmentAfterTheStartOfImage() throws IOException {
+        byte[] jpeg = { (byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xdb, 1, 2, 3, (byte) 0xff, (byte) 0xd9 };
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        ExifOrientationStream out = new ExifOrientationStream(file, 6);
+        // the marker comes in two writes, as a streaming encoder may split it
+        out.write(jpeg[0]);
+        out.write(jpeg, 1, 4);
+        out.write(jpeg, 5, jpeg.length - 5);
+        byte[] written = file.toByteArray();
+
+        assertEquals(jpeg.length + 36, written.length);
+        assertEquals((byte) 0xd8, written[1]);
+        assertEquals((byte) 0xe1, written[3]);
+        assertEquals(34, written[5]);
+        assertEquals("Exif", new String(written, 6, 4, "US-ASCII"));
+        // tag 0x0112, a single SHORT value
+        assertEquals(0x12, written[23]);
+        assertEquals(6, written[31]);
+        for (int i = 2; i < jpeg.length; i++) {
+            assertEquals(jpeg[i], written[i + 36]);
+        }
+    }
+
+    @Test
+    public void displaysUntransformedFramesLikeTheTransformer() {
+        byte[] source = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = (byte) i;
+        }
+        for (int rotation : new int[] { 0, 90, 180, 270 }) {
+            for (boolean mirror : new boolean[] { false, true }) {
+                FrameTransformer transformer = new FrameTransformer();
+                transformer.configure(WIDTH, HEIGHT, WIDTH, HEIGHT, rotation, mirror);
+                byte[] output = transformer.toNv21(source);
+                int orientation = ExifOrientationStream.getOrientation(rotation, mirror);
+
+                for (int y = 0; y < HEIGHT; y++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        int[] o = display(x, y, orientation);
+                        assertEquals(
+                            "rotation " + rotation + ", mirror " + mirror,
+                            source[y * WIDTH + x],
+                            output[o[1] * transformer.getOutputWidth() + o[0]]
+                        );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Where a viewer shows a stored pixel, for every Exif orientation.
+     */
+    private static int[] display(int x, int y, int orientation) {
+        switch (orientation) {
+            case 2:
+                return new int[] { WIDTH - 1 - x, y };
+            case 3:
+                return new int[] { WIDTH - 1 - x, HEIGHT - 1 - y };
+            case 4:
+                return new int[] { x, HEIGHT - 1 - y };
+            case 5:
+                return new int[] { y, x };
+            case 6:
+                return new int[] { HEIGHT - 1 - y, x };
+            case 7:
+                return new int[] { HEIGHT - 1 - y, WIDTH - 1 - x };
+            case 8:
+                return new int[] { y, WIDTH - 1 - x };
+            default:
+                return new int[] { x, y };
+        }
+    }
+}
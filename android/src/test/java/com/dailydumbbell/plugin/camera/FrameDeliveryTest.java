@@ -0,0 +1,156 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class FrameDeliveryTest {
+    private static final int QUEUE_SIZE = 2;
+
+    private static class Payload {
+        long sequence;
+    }
+
+    @Test
+    public void neverHandsOutAPayloadBeforeItsDeliveryIsDone() throws Exception {
+        Set<Payload> inUse = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        List<Long> delivered = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(50);
+        FrameDelivery<Payload> delivery = new FrameDelivery<>("TestDelivery", QUEUE_SIZE, Payload::new, new FrameDelivery.Handler<Payload>() {
+            @Override
+            public boolean deliver(Payload payload) {
+                // slower than the producer, so the queue stays full
+                sleep(1);
+                delivered.add(payload.sequence);
+                inUse.remove(payload);
+                done.countDown();
+                return true;
+            }
+
+            @Override
+            public void onLost(Payload payload) {
+                fail("frame " + payload.sequence + " lost");
+            }
+        });
+        assertEquals(QUEUE_SIZE + 2, delivery.getRingSize());
+        delivery.start();
+        for (long sequence = 0; sequence < 50; sequence++) {
+            Payload payload = delivery.next();
+            assertFalse("payload of frame " + payload.sequence + " reused for frame " + sequence, inUse.contains(payload));
+            payload.sequence = sequence;
+            inUse.add(payload);
+            assertTrue(delivery.submit(payload));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        delivery.stop();
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Long.valueOf(i), delivered.get(i));
+        }
+    }
+
+    @Test
+    public void releasesTheCreditOfFailedDeliveries() throws Exception {
+        FrameCredits credits = new FrameCredits(4, 60000);
+        List<Long> lost = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        FrameDelivery<Payload> delivery = new FrameDelivery<>("TestDelivery", QUEUE_SIZE, Payload::new, new FrameDelivery.Handler<Payload>() {
+            @Override
+            public boolean deliver(Payload payload) {
+                done.countDown();
+                return payload.sequence != 1;
+            }
+
+            @Override
+            public void onLost(Payload payload) {
+                lost.add(payload.sequence);
+                credits.release(payload.sequence);
+            }
+        });
+        delivery.start();
+        for (long sequence = 0; sequence < 3; sequence++) {
+            assertTrue(credits.tryAcquire(sequence, 0));
+            Payload payload = delivery.next();
+            payload.sequence = sequence;
+            delivery.submit(payload);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        delivery.stop();
+
+        assertEquals(Collections.singletonList(1L), lost);
+        // delivered frames keep their credit until acknowledged
+        assertEquals(2, credits.getInFlightCount());
+    }
+
+    @Test
+    public void releasesTheCreditOfFramesDroppedOnStop() throws Exception {
+        FrameCredits credits = new FrameCredits(4, 60000);
+        List<Long> lost = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FrameDelivery<Payload> delivery = new FrameDelivery<>("TestDelivery", QUEUE_SIZE, Payload::new, new FrameDelivery.Handler<Payload>() {
+            @Override
+            public boolean deliver(Payload payload) {
+                busy.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+
+            @Override
+            public void onLost(Payload payload) {
+                lost.add(payload.sequence);
+                credits.release(payload.sequence);
+            }
+        });
+        delivery.start();
+        for (long sequence = 0; sequence < 3; sequence++) {
+            assertTrue(credits.tryAcquire(sequence, 0));
+            Payload payload = delivery.next();
+            payload.sequence = sequence;
+            assertTrue(delivery.submit(payload));
+            if (sequence == 0) {
+                assertTrue(busy.await(5, TimeUnit.SECONDS));
+            }
+        }
+
+        Thread stopper = new Thread(delivery::stop);
+        stopper.start();
+        // stop() waits for the frame being delivered once no other frame is taken
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stopper.getState() != Thread.State.TIMED_WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        stopper.join(5000);
+
+        assertEquals(List.of(1L, 2L), lost);
+        assertEquals(1, credits.getInFlightCount());
+
+        // frames submitted once stopped are lost right away
+        assertTrue(credits.tryAcquire(3, 0));
+        Payload payload = delivery.next();
+        payload.sequence = 3;
+        assertFalse(delivery.submit(payload));
+        assertEquals(List.of(1L, 2L, 3L), lost);
+        assertEquals(1, credits.getInFlightCount());
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FramePipelineTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FramePipeline.Configurator halfSize = (transformer, frame) ->
+        transformer.configure(frame.width, frame.height, frame.width / 2, frame.height / 2, 0, false);
+
+    @Test
+    public void deliversSyntheticFramesInOrder() throws Exception {
+        List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(20);
+        FrameStats stats = new FrameStats();
+        FramePipeline pipeline = pipeline(stats, new FrameCredits(0, 0), (frame, transformer, encoder, encoded) -> {
+            assertEquals(WIDTH / 2 * HEIGHT / 2, encoded.size());
+            // gradient averaged over the first 2x2 block, pixels wrap around past 255
+            int shift = (int) frame.sequence;
+            int sum = (shift & 0xff) + 2 * ((shift + 1) & 0xff) + ((shift + 2) & 0xff);
+            assertEquals((sum + 2) >> 2, encoded.getBuffer()[0] & 0xff);
+            sequences.add(frame.sequence);
+            latch.countDown();
+            return true;
+        });
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 0, 3);
+        pipeline.start();
+        source.start(pipeline);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        source.stop();
+        pipeline.stop();
+
+        for (int i = 1; i < sequences.size(); i++) {
+            assertTrue(sequences.get(i) > sequences.get(i - 1));
+        }
+        assertEquals(stats.getReceived(), stats.getProcessed() + stats.getDropped());
+        assertEquals(source.getBufferPool().getFrameCount(), stats.getReceived());
+    }
+
+    @Test
+    public void skipsFramesWithoutCredits() throws Exception {
+        FrameCredits credits = new FrameCredits(1, 60000);
+        FrameStats stats = new FrameStats();
+        CountDownLatch latch = new CountDownLatch(1);
+        FramePipeline pipeline = pipeline(stats, credits, (frame, transformer, encoder, encoded) -> {
+            latch.countDown();
+            return true;
+        });
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 200, 2);
+        pipeline.start();
+        source.start(pipeline);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        source.stop();
+        pipeline.stop();
+
+        // the only credit is never acknowledged
+        assertEquals(1, stats.getProcessed());
+        assertTrue(credits.getSkippedCount() > 0);
+    }
+
+    @Test
+    public void runsProcessorsOnRawFramesBeforeEncoding() throws Exception {
+        List<RawFrame> held = Collections.synchronizedList(new ArrayList<>());
+        List<Map<String, Object>> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(3);
+        FrameStats stats = new FrameStats();
+        FramePipeline pipeline = pipeline(stats, new FrameCredits(0, 0), (frame, transformer, encoder, encoded) -> {
+            latch.countDown();
+            return true;
+        });
+        List<FrameProcessor> processors = new CopyOnWriteArrayList<>();
+        processors.add(new FrameProcessor() {
+            @Override
+            public String getName() {
+                return "first-pixel";
+            }
+
+            @Override
+            public void process(RawFrame frame, FrameTransformPlan plan, ResultListener listener) {
+                assertEquals(WIDTH, plan.sourceWidth);
+                if (held.isEmpty()) {
+                    // kept past the call, its buffer stays out of the source
+                    held.add(frame.retain());
+                }
+                listener.onResult(this, frame, Collections.singletonMap("value", (Object) (frame.data[0] & 0xff)));
+            }
+        });
+        pipeline.setFrameProcessors(processors, new FrameProcessor.ResultListener() {
+            @Override
+            public void onResult(FrameProcessor processor, RawFrame frame, Map<String, Object> result) {
+                results.add(result);
+            }
+
+            @Override
+            public void onError(FrameProcessor processor, RawFrame frame, RuntimeException e) {
+                throw new AssertionError(e);
+            }
+        });
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 0, 3);
+        pipeline.start();
+        source.start(pipeline);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        source.stop();
+        pipeline.stop();
+
+        assertTrue(results.size() >= 3);
+        RawFrame frame = held.get(0);
+        assertEquals(1, frame.getReferenceCount());
+        assertEquals((int) (frame.sequence & 0xff), results.get(0).get("value"));
+        // the pipeline is done with the frame, the processor still reads it
+        assertEquals((byte) frame.sequence, frame.data[0]);
+        frame.release();
+        assertEquals(0, frame.getReferenceCount());
+    }
+
+    @Test
+    public void replaysRecordedFrames() throws Exception {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        File file = folder.newFile("frames.nv21");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < 3; i++) {
+                SyntheticFrameSource.render(frame, WIDTH, HEIGHT, i * 10);
+                out.write(frame);
+            }
+            // trailing partial frame
+            out.write(frame, 0, 100);
+        }
+
+        List<Byte> firstPixels = Collections.synchronizedList(new ArrayList<>());
+        ReplayFrameSource source = new ReplayFrameSource(file, WIDTH, HEIGHT, 0, 1, false);
+        source.start(f -> {
+            firstPixels.add(f.data[0]);
+            f.release();
+        });
+        for (int i = 0; i < 100 && source.isRunning(); i++) {
+            Thread.sleep(10);
+        }
+        source.stop();
+
+        assertEquals(3, source.getFrameCount());
+        assertEquals(3, firstPixels.size());
+        assertEquals(Byte.valueOf((byte) 0), firstPixels.get(0));
+        assertEquals(Byte.valueOf((byte) 10), firstPixels.get(1));
+        assertEquals(Byte.valueOf((byte) 20), firstPixels.get(2));
+    }
+
+    private FramePipeline pipeline(FrameStats stats, FrameCredits credits, Delivery delivery) {
+        return new FramePipeline("TestFrameWorker", 1, FrameWorker.DropPolicy.DROP_OLDEST, new GrayFrameEncoder(), credits, stats, halfSize,
+            new FramePipeline.FrameSink() {
+                @Override
+                public boolean onFrame(RawFrame frame, int output, FrameTransformer transformer, FrameEncoder encoder, FrameOutputStream encoded) {
+                    return delivery.onFrame(frame, transformer, encoder, encoded);
+                }
+
+                @Override
+                public void onError(RawFrame frame, RuntimeException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        );
+    }
+
+    private interface Delivery {
+        boolean onFrame(RawFrame frame, FrameTransformer transformer, FrameEncoder encoder, FrameOutputStream encoded);
+    }
+}
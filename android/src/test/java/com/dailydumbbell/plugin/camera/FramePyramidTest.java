@@ -0,0 +1,75 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class FramePyramidTest {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+
+    @Test
+    public void feedsSmallerOutputsFromLargerOnes() {
+        byte[] source = new byte[WIDTH * HEIGHT * 3 / 2];
+        SyntheticFrameSource.render(source, WIDTH, HEIGHT, 0);
+        FramePyramid pyramid = new FramePyramid(
+            Arrays.asList(
+                new FramePyramid.Output(WIDTH / 4, HEIGHT / 4, 2, new GrayFrameEncoder()),
+                new FramePyramid.Output(WIDTH / 2, HEIGHT / 2, 1, new GrayFrameEncoder())
+            )
+        );
+        pyramid.configure(new FrameTransformPlan(WIDTH, HEIGHT, WIDTH, HEIGHT, 90, false));
+
+        List<Integer> outputs = new ArrayList<>();
+        List<byte[]> frames = new ArrayList<>();
+        FramePyramid.OutputHandler handler = new FramePyramid.OutputHandler() {
+            @Override
+            public void onOutput(int output, FrameTransformer transformer, FrameEncoder encoder, FrameOutputStream encoded) {
+                outputs.add(output);
+                frames.add(Arrays.copyOf(encoded.getBuffer(), encoded.size()));
+                assertEquals(encoded.size(), transformer.getOutputWidth() * transformer.getOutputHeight());
+            }
+        };
+        assertEquals(2, pyramid.process(source, handler));
+        assertEquals(1, pyramid.process(source, handler));
+        // the larger output is produced first, the smaller one every other frame
+        assertEquals(Arrays.asList(1, 0, 1), outputs);
+
+        // half size rotated, then halved again from it, as averaging twice over 2x2 blocks
+        FrameTransformer direct = new FrameTransformer();
+        direct.configure(WIDTH, HEIGHT, WIDTH / 2, HEIGHT / 2, 90, false);
+        byte[] half = new byte[WIDTH * HEIGHT / 4];
+        direct.toLuma(source, half);
+        assertArrayEquals(half, frames.get(0));
+
+        FrameTransformer quarter = new FrameTransformer();
+        quarter.configure(HEIGHT / 2, WIDTH / 2, HEIGHT / 4, WIDTH / 4, 0, false);
+        byte[] expected = new byte[WIDTH * HEIGHT / 16];
+        quarter.toLuma(direct.toNv21(source), expected);
+        assertArrayEquals(expected, frames.get(1));
+        assertEquals(WIDTH * HEIGHT / 16, frames.get(1).length);
+    }
+
+    @Test
+    public void scalesLevelsLargerThanTheirParentDownUniformly() {
+        byte[] source = new byte[WIDTH * HEIGHT * 3 / 2];
+        // the full size output comes last as it asks for no size, it is fed from the smaller level above
+        FramePyramid pyramid = new FramePyramid(
+            Arrays.asList(new FramePyramid.Output(0, 0, 1, new GrayFrameEncoder()), new FramePyramid.Output(WIDTH / 2, HEIGHT, 1, new GrayFrameEncoder()))
+        );
+        pyramid.configure(new FrameTransformPlan(WIDTH, HEIGHT, WIDTH, HEIGHT, 90, false));
+
+        List<int[]> sizes = new ArrayList<>();
+        pyramid.process(source, new FramePyramid.OutputHandler() {
+            @Override
+            public void onOutput(int output, FrameTransformer transformer, FrameEncoder encoder, FrameOutputStream encoded) {
+                sizes.add(new int[] { output, transformer.getOutputWidth(), transformer.getOutputHeight() });
+            }
+        });
+        assertArrayEquals(new int[] { 1, HEIGHT / 2, WIDTH / 2 }, sizes.get(0));
+        assertArrayEquals(new int[] { 0, HEIGHT / 2, WIDTH / 2 }, sizes.get(1));
+    }
+}
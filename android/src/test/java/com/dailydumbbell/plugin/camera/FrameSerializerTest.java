@@ -0,0 +1,59 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import org.junit.Test;
+
+public class FrameSerializerTest {
+
+    @Test
+    public void encodesLikeTheJdkWithoutWraps() {
+        FrameSerializer serializer = new FrameSerializer();
+        Random random = new Random(42);
+        for (int length = 0; length < 300; length++) {
+            byte[] data = new byte[length + 3];
+            random.nextBytes(data);
+            String expected = "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(Arrays.copyOfRange(data, 3, data.length));
+            assertEquals(expected, serializer.toDataUri("image/jpeg", data, 3, length));
+        }
+    }
+
+    @Test
+    public void rewritesThePrefixWhenTheMimeTypeChanges() {
+        FrameSerializer serializer = new FrameSerializer();
+        byte[] data = { 1, 2, 3 };
+        assertEquals("data:image/jpeg;base64,AQID", serializer.toDataUri("image/jpeg", data, 0, 3));
+        assertEquals("data:application/octet-stream;base64,AQID", serializer.toDataUri("application/octet-stream", data, 0, 3));
+    }
+
+    @Test
+    public void onlyAllocatesTheDataUri() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+
+        FrameSerializer serializer = new FrameSerializer();
+        byte[] frame = new byte[150 * 1024];
+        new Random(7).nextBytes(frame);
+        for (int i = 0; i < 100; i++) {
+            serializer.toDataUri("image/jpeg", frame, 0, frame.length);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        int frames = 100;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < frames; i++) {
+            serializer.toDataUri("image/jpeg", frame, 0, frame.length);
+        }
+        long perFrame = (threads.getThreadAllocatedBytes(threadId) - before) / frames;
+
+        // a compact String holds one byte per char, a plain one two
+        long dataUriLength = "data:image/jpeg;base64,".length() + FrameSerializer.getEncodedLength(frame.length);
+        assertTrue("allocated " + perFrame + " bytes per frame", perFrame <= dataUriLength * 2 + 1024);
+    }
+}
@@ -0,0 +1,172 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameStreamServerTest {
+    private FrameStreamServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FrameStreamServer(0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void streamsMultipartFrames() throws Exception {
+        try (Socket socket = connect(server.getStreamUrl())) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertTrue(readHead(in).startsWith("HTTP/1.1 200 OK"));
+            awaitClients(1);
+
+            byte[] frame = { 1, 2, 3, 4, 5 };
+            server.publish(frame, 1, 3, "image/jpeg", 7, 1000);
+            String part = readHead(in);
+            assertTrue(part.contains("Content-Type: image/jpeg"));
+            assertTrue(part.contains("Content-Length: 3"));
+            assertTrue(part.contains("X-Frame-Sequence: 7"));
+            byte[] data = new byte[3];
+            in.readFully(data);
+            assertArrayEquals(new byte[] { 2, 3, 4 }, data);
+        }
+    }
+
+    @Test
+    public void streamsWebSocketMessages() throws Exception {
+        try (Socket socket = connectWebSocket()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            String head = readHead(in);
+            assertTrue(head, head.startsWith("HTTP/1.1 101"));
+            // accept key from RFC 6455
+            assertTrue(head, head.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+            awaitClients(1);
+
+            byte[] frame = new byte[70000];
+            frame[69999] = 42;
+            server.publish(frame, 0, frame.length, "image/jpeg", 1, 1000);
+            assertEquals(0x82, in.readUnsignedByte());
+            assertEquals(127, in.readUnsignedByte());
+            assertEquals(frame.length, in.readLong());
+            byte[] data = new byte[frame.length];
+            in.readFully(data);
+            assertEquals(42, data[69999]);
+        }
+    }
+
+    @Test
+    public void answersWebSocketPingsAndCloses() throws Exception {
+        try (Socket socket = connectWebSocket()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            readHead(in);
+            awaitClients(1);
+
+            writeMasked(socket, 0x89, new byte[] { 'h', 'i' });
+            assertEquals(0x8A, in.readUnsignedByte());
+            assertEquals(2, in.readUnsignedByte());
+            assertEquals('h', in.readUnsignedByte());
+            assertEquals('i', in.readUnsignedByte());
+
+            // normal closure status 1000
+            writeMasked(socket, 0x88, new byte[] { 0x03, (byte) 0xe8 });
+            assertEquals(0x88, in.readUnsignedByte());
+            assertEquals(2, in.readUnsignedByte());
+            assertEquals(0x03, in.readUnsignedByte());
+            assertEquals(0xe8, in.readUnsignedByte());
+            assertEquals(-1, in.read());
+            awaitClients(0);
+        }
+    }
+
+    @Test
+    public void releasesWebSocketClientsThatLeave() throws Exception {
+        try (Socket socket = connectWebSocket()) {
+            readHead(new DataInputStream(socket.getInputStream()));
+            awaitClients(1);
+        }
+        // no frame is published, the server notices the end of the stream on its own
+        awaitClients(0);
+    }
+
+    @Test
+    public void rejectsUnknownPaths() throws Exception {
+        try (Socket socket = connect("http://127.0.0.1:" + server.getPort() + "/stream")) {
+            assertTrue(readHead(new DataInputStream(socket.getInputStream())).startsWith("HTTP/1.1 404"));
+        }
+    }
+
+    @Test
+    public void closesClientsOnStop() throws Exception {
+        try (Socket socket = connect(server.getStreamUrl())) {
+            InputStream in = socket.getInputStream();
+            readHead(new DataInputStream(in));
+            awaitClients(1);
+            server.stop();
+            assertFalse(server.isRunning());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    private Socket connect(String url) throws IOException {
+        URI uri = URI.create(url);
+        Socket socket = new Socket(uri.getHost(), uri.getPort());
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write(("GET " + uri.getPath() + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        return socket;
+    }
+
+    private Socket connectWebSocket() throws IOException {
+        URI uri = URI.create(server.getWebSocketUrl());
+        Socket socket = new Socket(uri.getHost(), uri.getPort());
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write(
+            ("GET " + uri.getPath() + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII)
+        );
+        return socket;
+    }
+
+    private static void writeMasked(Socket socket, int first, byte[] payload) throws IOException {
+        byte[] mask = { 0x12, 0x34, 0x56, 0x78 };
+        byte[] frame = new byte[6 + payload.length];
+        frame[0] = (byte) first;
+        frame[1] = (byte) (0x80 | payload.length);
+        System.arraycopy(mask, 0, frame, 2, 4);
+        for (int i = 0; i < payload.length; i++) {
+            frame[6 + i] = (byte) (payload[i] ^ mask[i % 4]);
+        }
+        socket.getOutputStream().write(frame);
+    }
+
+    private void awaitClients(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && server.getClientCount() != count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, server.getClientCount());
+    }
+
+    private static String readHead(DataInputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (true) {
+            head.write(in.readUnsignedByte());
+            String text = head.toString("US-ASCII");
+            if (text.endsWith("\r\n\r\n")) {
+                return text;
+            }
+        }
+    }
+}
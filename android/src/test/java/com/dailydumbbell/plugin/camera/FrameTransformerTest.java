@@ -0,0 +1,265 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class FrameTransformerTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+
+    @Test
+    public void rotatesAndMirrorsLuma() {
+        byte[] source = frame(WIDTH, HEIGHT);
+        for (int rotation : new int[] { 0, 90, 180, 270 }) {
+            for (boolean mirror : new boolean[] { false, true }) {
+                FrameTransformer transformer = new FrameTransformer();
+                transformer.configure(WIDTH, HEIGHT, WIDTH, HEIGHT, rotation, mirror);
+                byte[] output = transformer.toNv21(source);
+                int outputWidth = transformer.getOutputWidth();
+
+                for (int y = 0; y < HEIGHT; y++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        int u = mirror ? WIDTH - 1 - x : x;
+                        int[] o = rotate(u, y, rotation);
+                        assertEquals(
+                            "rotation " + rotation + ", mirror " + mirror,
+                            source[y * WIDTH + x],
+                            output[o[1] * outputWidth + o[0]]
+                        );
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void swapsOutputSizeOnQuarterTurns() {
+        FrameTransformer transformer = new FrameTransformer();
+        transformer.configure(640, 480, 320, 240, 90, false);
+        assertEquals(240, transformer.getOutputWidth());
+        assertEquals(320, transformer.getOutputHeight());
+        assertEquals(240 * 320 * 3 / 2, transformer.toNv21(new byte[640 * 480 * 3 / 2]).length);
+    }
+
+    @Test
+    public void resamplesFractionalRatios() {
+        byte[] source = frame(WIDTH, HEIGHT);
+        FrameTransformer transformer = new FrameTransformer();
+        transformer.configure(WIDTH, HEIGHT, 6, HEIGHT / 2, 0, false);
+        assertEquals(FrameTransformPlan.SCALE_RESAMPLE, transformer.getPlan().getScalePath());
+        byte[] output = transformer.toNv21(source);
+        // samples the pixel under the centre of each scaled pixel
+        assertEquals(source[WIDTH], output[0]);
+        assertEquals(source[3 * WIDTH + 2], output[6 + 1]);
+    }
+
+    @Test
+    public void reusesOutputBuffers() {
+        FrameTransformer transformer = new FrameTransformer();
+        transformer.configure(WIDTH, HEIGHT, WIDTH, HEIGHT, 90, true);
+        byte[] source = frame(WIDTH, HEIGHT);
+        assertSame(transformer.toNv21(source), transformer.toNv21(source));
+        assertSame(transformer.toArgb(source), transformer.toArgb(source));
+    }
+
+    @Test
+    public void convertsWhiteAndBlackToArgb() {
+        byte[] source = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(source, 0, WIDTH * HEIGHT, (byte) 255);
+        Arrays.fill(source, WIDTH * HEIGHT, source.length, (byte) 128);
+        FrameTransformer transformer = new FrameTransformer();
+        transformer.configure(WIDTH, HEIGHT, WIDTH, HEIGHT, 0, false);
+        assertEquals(0xffffffff, transformer.toArgb(source)[0]);
+
+        Arrays.fill(source, 0, WIDTH * HEIGHT, (byte) 16);
+        assertEquals(0xff000000, transformer.toArgb(source)[0]);
+    }
+
+    @Test
+    public void appliesPlansWithoutRebuildingSameGeometry() {
+        FrameTransformPlan plan = FrameTransformPlan.fit(640, 480, 321, 400, 90, true);
+        assertEquals(320, plan.scaledWidth);
+        assertEquals(240, plan.scaledHeight);
+        assertEquals(240, plan.outputWidth);
+        assertEquals(320, plan.outputHeight);
+        assertEquals(2, plan.sampleFactor);
+        assertEquals(240 * 320 * 3 / 2, plan.getYuvSize());
+        assertSame(plan, plan.withRotation(450));
+
+        byte[] source = frame(640, 480);
+        FrameTransformer transformer = new FrameTransformer();
+        transformer.configure(plan);
+        byte[] expected = transformer.toNv21(source).clone();
+
+        FrameTransformPlan rotated = plan.withRotation(180);
+        transformer.configure(rotated);
+        assertEquals(320, transformer.getOutputWidth());
+
+        FrameTransformPlan back = rotated.withRotation(90);
+        transformer.configure(back);
+        assertSame(back, transformer.getPlan());
+        assertArrayEquals(expected, transformer.toNv21(source));
+    }
+
+    @Test
+    public void averagesBlocksOnExactDownscales() {
+        byte[] source = frame(WIDTH * 2, HEIGHT * 2);
+        FrameTransformer transformer = new FrameTransformer();
+        transformer.configure(WIDTH * 2, HEIGHT * 2, WIDTH, HEIGHT, 0, false);
+        assertEquals(FrameTransformPlan.SCALE_BOX, transformer.getPlan().getScalePath());
+        byte[] upright = transformer.toNv21(source).clone();
+
+        int sourceWidth = WIDTH * 2;
+        int uvOffset = sourceWidth * HEIGHT * 2;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = 2 * y * sourceWidth + 2 * x;
+                int sum = (source[i] & 0xff) + (source[i + 1] & 0xff) + (source[i + sourceWidth] & 0xff) + (source[i + sourceWidth + 1] & 0xff);
+                assertEquals((sum + 2) >> 2, upright[y * WIDTH + x] & 0xff);
+            }
+        }
+        int v = uvOffset + 2 * sourceWidth + 4;
+        int sum = (source[v] & 0xff) + (source[v + 2] & 0xff) + (source[v + sourceWidth] & 0xff) + (source[v + sourceWidth + 2] & 0xff);
+        assertEquals((sum + 2) >> 2, upright[WIDTH * HEIGHT + WIDTH + 2] & 0xff);
+
+        for (int rotation : new int[] { 90, 180, 270 }) {
+            transformer.configure(WIDTH * 2, HEIGHT * 2, WIDTH, HEIGHT, rotation, true);
+            byte[] output = transformer.toNv21(source);
+            int outputWidth = transformer.getOutputWidth();
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    int[] o = rotate(WIDTH - 1 - x, y, rotation);
+                    assertEquals("rotation " + rotation, upright[y * WIDTH + x], output[o[1] * outputWidth + o[0]]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cropsRegionsOfTheRotatedOutput() {
+        assertArrayEquals(new int[] { 4, 0, 4, 4 }, FrameTransformPlan.toSourceRect(WIDTH, HEIGHT, 0, false, new double[] { 0.5, 0, 0.5, 1 }));
+        assertArrayEquals(new int[] { 0, 0, 4, 4 }, FrameTransformPlan.toSourceRect(WIDTH, HEIGHT, 90, false, new double[] { 0, 0, 1, 0.5 }));
+        assertArrayEquals(new int[] { 4, 0, 4, 4 }, FrameTransformPlan.toSourceRect(WIDTH, HEIGHT, 90, true, new double[] { 0, 0, 1, 0.5 }));
+
+        byte[] source = frame(WIDTH, HEIGHT);
+        for (boolean mirror : new boolean[] { false, true }) {
+            FrameTransformer transformer = new FrameTransformer();
+            transformer.configure(WIDTH, HEIGHT, WIDTH, HEIGHT, 90, mirror);
+            byte[] full = transformer.toNv21(source).clone();
+
+            FrameTransformPlan plan = FrameTransformPlan.fit(WIDTH, HEIGHT, new double[] { 0, 0, 1, 0.5 }, 0, 0, 90, mirror);
+            assertTrue(plan.isCropped());
+            transformer.configure(plan);
+            assertEquals(HEIGHT, transformer.getOutputWidth());
+            assertEquals(WIDTH / 2, transformer.getOutputHeight());
+            byte[] cropped = transformer.toNv21(source);
+            // the top half of the rotated frame, both planes
+            int lumaSize = HEIGHT * WIDTH / 2;
+            for (int i = 0; i < lumaSize; i++) {
+                assertEquals("mirror " + mirror, full[i], cropped[i]);
+            }
+            for (int i = 0; i < lumaSize / 2; i++) {
+                assertEquals("mirror " + mirror, full[WIDTH * HEIGHT + i], cropped[lumaSize + i]);
+            }
+        }
+    }
+
+    @Test
+    public void computesLumaStatsWhileExtractingLuma() {
+        byte[] source = frame(WIDTH, HEIGHT);
+        FrameTransformer transformer = new FrameTransformer();
+        transformer.configure(WIDTH, HEIGHT, WIDTH, HEIGHT, 0, false);
+        byte[] plain = new byte[WIDTH * HEIGHT];
+        transformer.toLuma(source, plain);
+
+        GrayFrameEncoder encoder = new GrayFrameEncoder(true);
+        FrameOutputStream encoded = encoder.encode(transformer, source);
+        LumaStats stats = encoder.getLumaStats();
+        assertArrayEquals(plain, Arrays.copyOf(encoded.getBuffer(), encoded.size()));
+
+        // luma values are 0 to 31, one per pixel
+        assertEquals(15.5, stats.getMean(), 1e-9);
+        assertEquals(WIDTH * HEIGHT, stats.getHistogram()[0] + stats.getHistogram()[1] + stats.getHistogram()[2] + stats.getHistogram()[3]);
+        assertEquals(8, stats.getHistogram()[0]);
+        // every pixel differs by 1 from its left neighbour and by WIDTH from its upper one
+        assertEquals(1 + WIDTH * WIDTH, stats.getSharpness(), 1e-9);
+
+        Arrays.fill(source, 0, WIDTH * HEIGHT, (byte) 200);
+        encoder.encode(transformer, source);
+        assertEquals(200, stats.getMean(), 1e-9);
+        assertEquals(0, stats.getSharpness(), 1e-9);
+        assertEquals(WIDTH * HEIGHT, stats.getHistogram()[200 >> 3]);
+        assertNull(new GrayFrameEncoder().getLumaStats());
+    }
+
+    @Test
+    public void convertsStripesLikeASinglePass() {
+        byte[] source = frame(1280, 720);
+        for (int i = 0; i < source.length; i++) {
+            // varies across rows too, so a misplaced band shows
+            source[i] ^= (byte) (i >> 8);
+        }
+        FrameStripes stripes = new FrameStripes(4);
+        try {
+            for (int[] scaled : new int[][] { { 640, 360 }, { 512, 288 }, { 1280, 720 } }) {
+                for (int rotation : new int[] { 0, 90 }) {
+                    for (boolean mirror : new boolean[] { false, true }) {
+                        FrameTransformer sequential = new FrameTransformer();
+                        FrameTransformer striped = new FrameTransformer();
+                        sequential.configure(1280, 720, scaled[0], scaled[1], rotation, mirror);
+                        striped.configure(1280, 720, scaled[0], scaled[1], rotation, mirror);
+                        striped.setStripes(stripes);
+                        String plan = scaled[0] + "x" + scaled[1] + ", rotation " + rotation + ", mirror " + mirror;
+
+                        assertArrayEquals(plan, sequential.toNv21(source), striped.toNv21(source));
+                        assertArrayEquals(plan, sequential.toI420(source), striped.toI420(source));
+                        assertArrayEquals(plan, sequential.toArgb(source), striped.toArgb(source));
+                        byte[] luma = new byte[scaled[0] * scaled[1]];
+                        byte[] stripedLuma = new byte[luma.length];
+                        sequential.toLuma(source, luma);
+                        striped.toLuma(source, stripedLuma);
+                        assertArrayEquals(plan, luma, stripedLuma);
+                    }
+                }
+            }
+        } finally {
+            stripes.shutdown();
+        }
+    }
+
+    @Test
+    public void keepsSmallFramesOnOneThread() {
+        FrameStripes stripes = new FrameStripes(4);
+        try {
+            assertEquals(1, stripes.getStripeCount(144, 3 * 352));
+            assertEquals(4, stripes.getStripeCount(540, 3 * 1920));
+            assertEquals(1, new FrameStripes(1).getStripeCount(540, 3 * 1920));
+        } finally {
+            stripes.shutdown();
+        }
+        assertEquals(1, stripes.getStripeCount(540, 3 * 1920));
+    }
+
+    private static int[] rotate(int x, int y, int rotation) {
+        switch (rotation) {
+            case 90:
+                return new int[] { HEIGHT - 1 - y, x };
+            case 180:
+                return new int[] { WIDTH - 1 - x, HEIGHT - 1 - y };
+            case 270:
+                return new int[] { y, WIDTH - 1 - x };
+            default:
+                return new int[] { x, y };
+        }
+    }
+
+    private static byte[] frame(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) i;
+        }
+        return frame;
+    }
+}
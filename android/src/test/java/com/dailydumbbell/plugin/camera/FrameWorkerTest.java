@@ -0,0 +1,229 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class FrameWorkerTest {
+    private static final int FRAMES = 10;
+
+    @Test
+    public void processesFramesInSubmissionOrder() throws Exception {
+        RecordingHandler handler = new RecordingHandler(null, 5);
+        FrameWorker<Integer> worker = new FrameWorker<>("TestWorker", 10, FrameWorker.DropPolicy.BLOCK, handler);
+        worker.start();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(worker.submit(i));
+        }
+        assertTrue(handler.processed.await(5, TimeUnit.SECONDS));
+        worker.stop();
+
+        assertEquals(List.of(0, 1, 2, 3, 4), handler.frames);
+        assertTrue(handler.dropped.isEmpty());
+        assertEquals(0, worker.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldestReplacesTheOldestQueuedFrame() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler handler = new RecordingHandler(release, 3);
+        FrameWorker<Integer> worker = new FrameWorker<>("TestWorker", 2, FrameWorker.DropPolicy.DROP_OLDEST, handler);
+        worker.start();
+        fillWhileBusy(worker, handler);
+
+        assertTrue(worker.submit(3));
+        assertEquals(List.of(1), handler.dropped);
+        release.countDown();
+        assertTrue(handler.processed.await(5, TimeUnit.SECONDS));
+        worker.stop();
+
+        assertEquals(List.of(0, 2, 3), handler.frames);
+        assertEquals(1, worker.getDroppedCount());
+    }
+
+    @Test
+    public void dropNewestRejectsTheSubmittedFrame() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler handler = new RecordingHandler(release, 3);
+        FrameWorker<Integer> worker = new FrameWorker<>("TestWorker", 2, FrameWorker.DropPolicy.DROP_NEWEST, handler);
+        worker.start();
+        fillWhileBusy(worker, handler);
+
+        assertFalse(worker.submit(3));
+        assertEquals(List.of(3), handler.dropped);
+        release.countDown();
+        assertTrue(handler.processed.await(5, TimeUnit.SECONDS));
+        worker.stop();
+
+        assertEquals(List.of(0, 1, 2), handler.frames);
+        assertEquals(1, worker.getDroppedCount());
+    }
+
+    @Test
+    public void blockWaitsForRoomInTheQueue() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler handler = new RecordingHandler(release, 4);
+        FrameWorker<Integer> worker = new FrameWorker<>("TestWorker", 2, FrameWorker.DropPolicy.BLOCK, handler);
+        worker.start();
+        fillWhileBusy(worker, handler);
+
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            worker.submit(3);
+            submitted.countDown();
+        });
+        producer.start();
+        assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        assertTrue(handler.processed.await(5, TimeUnit.SECONDS));
+        worker.stop();
+
+        assertEquals(List.of(0, 1, 2, 3), handler.frames);
+        assertEquals(0, worker.getDroppedCount());
+    }
+
+    @Test
+    public void stopDropsQueuedAndLaterFrames() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler handler = new RecordingHandler(release, 1);
+        FrameWorker<Integer> worker = new FrameWorker<>("TestWorker", 2, FrameWorker.DropPolicy.BLOCK, handler);
+        worker.start();
+        fillWhileBusy(worker, handler);
+
+        Thread stopper = new Thread(worker::stop);
+        stopper.start();
+        // stop() joins the worker once it no longer takes frames, only then may frame 0 finish
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stopper.getState() != Thread.State.TIMED_WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        stopper.join(5000);
+
+        assertEquals(List.of(0), handler.frames);
+        assertFalse(worker.submit(3));
+        assertEquals(List.of(1, 2, 3), handler.dropped);
+    }
+
+    @Test
+    public void parsesDropPolicyOptions() {
+        assertEquals(FrameWorker.DropPolicy.DROP_NEWEST, FrameWorker.DropPolicy.fromString("drop-newest"));
+        assertEquals(FrameWorker.DropPolicy.BLOCK, FrameWorker.DropPolicy.fromString("block"));
+        assertEquals(FrameWorker.DropPolicy.DROP_OLDEST, FrameWorker.DropPolicy.fromString("drop-oldest"));
+        assertEquals(FrameWorker.DropPolicy.DROP_OLDEST, FrameWorker.DropPolicy.fromString(null));
+    }
+
+    @Test
+    public void chainedWorkersOverlapFramesInOrder() throws Exception {
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(FRAMES);
+        // frame 0 is delivered while frame 1 is encoded, each stage waits for the other one to hold its frame
+        CountDownLatch deliveringFirst = new CountDownLatch(1);
+        CountDownLatch encodingSecond = new CountDownLatch(1);
+        AtomicBoolean overlapped = new AtomicBoolean(true);
+        FrameWorker<Integer> deliver = new FrameWorker<>("TestDeliver", 2, FrameWorker.DropPolicy.BLOCK, new FrameWorker.FrameHandler<Integer>() {
+            @Override
+            public void onFrame(Integer frame) {
+                if (frame == 0) {
+                    deliveringFirst.countDown();
+                    overlapped.compareAndSet(true, await(encodingSecond));
+                }
+                delivered.add(frame);
+                done.countDown();
+            }
+
+            @Override
+            public void onDropped(Integer frame) {
+                fail("frame " + frame + " dropped");
+            }
+        });
+        FrameWorker<Integer> encode = new FrameWorker<>("TestEncode", FRAMES, FrameWorker.DropPolicy.BLOCK, new FrameWorker.FrameHandler<Integer>() {
+            @Override
+            public void onFrame(Integer frame) {
+                if (frame == 1) {
+                    encodingSecond.countDown();
+                    overlapped.compareAndSet(true, await(deliveringFirst));
+                }
+                deliver.submit(frame);
+            }
+
+            @Override
+            public void onDropped(Integer frame) {
+                fail("frame " + frame + " dropped");
+            }
+        });
+        deliver.start();
+        encode.start();
+        for (int i = 0; i < FRAMES; i++) {
+            encode.submit(i);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        encode.stop();
+        deliver.stop();
+
+        // one stage per frame at a time would have waited on both latches
+        assertTrue(overlapped.get());
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals(Integer.valueOf(i), delivered.get(i));
+        }
+        assertEquals(0, deliver.getDroppedCount());
+    }
+
+    /**
+     * Submits frame 0, waits until the worker holds it, then queues frames 1 and 2 so the queue is full.
+     */
+    private static void fillWhileBusy(FrameWorker<Integer> worker, RecordingHandler handler) throws InterruptedException {
+        assertTrue(worker.submit(0));
+        assertTrue(handler.busy.await(5, TimeUnit.SECONDS));
+        assertTrue(worker.submit(1));
+        assertTrue(worker.submit(2));
+    }
+
+    private static class RecordingHandler implements FrameWorker.FrameHandler<Integer> {
+        final List<Integer> frames = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> dropped = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch processed;
+        private final CountDownLatch mRelease;
+
+        RecordingHandler(CountDownLatch release, int frames) {
+            mRelease = release;
+            processed = new CountDownLatch(frames);
+        }
+
+        @Override
+        public void onFrame(Integer frame) {
+            busy.countDown();
+            if (mRelease != null) {
+                try {
+                    mRelease.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            frames.add(frame);
+            processed.countDown();
+        }
+
+        @Override
+        public void onDropped(Integer frame) {
+            dropped.add(frame);
+        }
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class MotionGateTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final long MS = 1000000L;
+
+    @Test
+    public void skipsFramesBelowThresholdUntilKeepAlive() {
+        MotionGate gate = new MotionGate(4, 1000);
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        SyntheticFrameSource.render(frame, WIDTH, HEIGHT, 0);
+        assertTrue(gate.accept(frame, WIDTH, HEIGHT, 0));
+
+        // every luma value moved by 2, under the threshold
+        SyntheticFrameSource.render(frame, WIDTH, HEIGHT, 2);
+        assertFalse(gate.accept(frame, WIDTH, HEIGHT, 100 * MS));
+        assertEquals(2, gate.getLastDifference(), 1e-9);
+
+        // compared with the last frame let through, not the last frame seen
+        SyntheticFrameSource.render(frame, WIDTH, HEIGHT, 5);
+        assertTrue(gate.accept(frame, WIDTH, HEIGHT, 200 * MS));
+        assertFalse(gate.accept(frame, WIDTH, HEIGHT, 300 * MS));
+        assertTrue(gate.accept(frame, WIDTH, HEIGHT, 1200 * MS));
+
+        assertEquals(3, gate.getPassedCount());
+        assertEquals(2, gate.getSkippedCount());
+        assertEquals(1, gate.getKeepAliveCount());
+        assertEquals(0.4, gate.getSkipRatio(), 1e-9);
+
+        MotionGate disabled = new MotionGate(0, 1000);
+        assertFalse(disabled.isEnabled());
+        assertTrue(disabled.accept(frame, WIDTH, HEIGHT, 0));
+        assertTrue(disabled.accept(frame, WIDTH, HEIGHT, 0));
+    }
+
+    @Test
+    public void onlySamplesTheCrop() {
+        MotionGate gate = new MotionGate(4, 0);
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        SyntheticFrameSource.render(frame, WIDTH, HEIGHT, 0);
+        assertTrue(gate.accept(frame, WIDTH, WIDTH / 2, 0, WIDTH / 2, HEIGHT, 0));
+
+        // the left half changes, outside of the crop
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int column = 0; column < WIDTH / 2; column++) {
+                frame[row * WIDTH + column] += 64;
+            }
+        }
+        assertFalse(gate.accept(frame, WIDTH, WIDTH / 2, 0, WIDTH / 2, HEIGHT, 100 * MS));
+
+        // the right half changes
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int column = WIDTH / 2; column < WIDTH; column++) {
+                frame[row * WIDTH + column] += 64;
+            }
+        }
+        assertTrue(gate.accept(frame, WIDTH, WIDTH / 2, 0, WIDTH / 2, HEIGHT, 200 * MS));
+    }
+}
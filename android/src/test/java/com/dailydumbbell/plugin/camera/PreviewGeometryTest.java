@@ -0,0 +1,50 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class PreviewGeometryTest {
+    private static final List<int[]> SIZES = Arrays.asList(
+        new int[] { 1920, 1080 },
+        new int[] { 1280, 720 },
+        new int[] { 800, 600 },
+        new int[] { 640, 480 }
+    );
+
+    @Test
+    public void prefersExactMultiplesOfTheCanvas() {
+        // 1280x720 is 4x the canvas, 1920x1080 is closer to the capture size but needs resampling
+        assertEquals(1, PreviewGeometry.getOptimalPreviewSize(SIZES, 1920, 1080, 320, 180));
+        assertEquals(0, PreviewGeometry.getOptimalPreviewSize(SIZES, 1920, 1080, 0, 0));
+        // no supported size is a multiple of the canvas
+        assertEquals(0, PreviewGeometry.getOptimalPreviewSize(SIZES, 1920, 1080, 300, 170));
+        assertEquals(3, PreviewGeometry.getOptimalPreviewSize(SIZES, 640, 480, 320, 240));
+
+        // a size equal to the canvas is not scaled at all, even when a 2x multiple is supported
+        List<int[]> sizes = Arrays.asList(
+            new int[] { 1280, 960 },
+            new int[] { 704, 576 },
+            new int[] { 640, 480 },
+            new int[] { 352, 288 }
+        );
+        assertEquals(2, PreviewGeometry.getOptimalPreviewSize(sizes, 640, 480, 640, 480));
+        assertEquals(3, PreviewGeometry.getOptimalPreviewSize(sizes, 352, 288, 352, 288));
+    }
+
+    @Test
+    public void picksTheLargestPictureOfThePreviewAspectRatio() {
+        List<int[]> pictures = Arrays.asList(
+            new int[] { 4000, 3000 },
+            new int[] { 3840, 2160 },
+            new int[] { 1920, 1080 }
+        );
+        assertEquals(1, PreviewGeometry.getLargestPictureSize(pictures, 1280, 720));
+        assertEquals(0, PreviewGeometry.getLargestPictureSize(pictures, 640, 480));
+        // no picture of the preview aspect ratio
+        assertEquals(0, PreviewGeometry.getLargestPictureSize(pictures, 352, 352));
+        assertEquals(-1, PreviewGeometry.getLargestPictureSize(null, 640, 480));
+    }
+}
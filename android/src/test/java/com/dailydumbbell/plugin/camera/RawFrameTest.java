@@ -0,0 +1,36 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class RawFrameTest {
+
+    @Test
+    public void returnsTheBufferWithTheLastRelease() {
+        List<byte[]> available = new ArrayList<>();
+        PreviewBufferPool pool = new PreviewBufferPool(16, 1);
+        pool.attach(available::add);
+        byte[] buffer = available.remove(0);
+        pool.onBufferDequeued(buffer);
+
+        RawFrame frame = new RawFrame(buffer, 4, 2, 0x11, 0, 0, pool);
+        assertSame(frame, frame.retain());
+        assertEquals(2, frame.getReferenceCount());
+        frame.release();
+        assertTrue(available.isEmpty());
+        frame.release();
+        assertEquals(1, available.size());
+        assertSame(buffer, available.get(0));
+        assertEquals(0, frame.getReferenceCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotBeRetainedOnceReleased() {
+        RawFrame frame = new RawFrame(new byte[16], 4, 2, 0x11, 0, 0, null);
+        frame.release();
+        frame.retain();
+    }
+}
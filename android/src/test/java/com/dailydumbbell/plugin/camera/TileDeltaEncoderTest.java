@@ -0,0 +1,54 @@
+package com.dailydumbbell.plugin.camera;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TileDeltaEncoderTest {
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 16;
+
+    @Test
+    public void sendsOnlyChangedTiles() {
+        byte[] source = new byte[WIDTH * HEIGHT * 3 / 2];
+        SyntheticFrameSource.render(source, WIDTH, HEIGHT, 0);
+        FrameTransformer transformer = new FrameTransformer();
+        transformer.configure(WIDTH, HEIGHT, WIDTH, HEIGHT, 0, false);
+        TileDeltaEncoder encoder = new TileDeltaEncoder(new GrayFrameEncoder(), 16, 4, 0);
+
+        FrameOutputStream encoded = encoder.encode(transformer, source);
+        assertTrue(encoder.isKeyframe());
+        assertEquals(2, encoder.getTileCount());
+        assertEquals(WIDTH * HEIGHT, encoded.size());
+
+        encoder.encode(transformer, source);
+        assertFalse(encoder.isKeyframe());
+        assertEquals(0, encoder.getTileCount());
+
+        // brightens the right half only
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = WIDTH / 2; x < WIDTH; x++) {
+                source[y * WIDTH + x] += 20;
+            }
+        }
+        encoded = encoder.encode(transformer, source);
+        assertEquals(1, encoder.getTileCount());
+        int[] tile = encoder.getTiles()[0];
+        assertEquals(16, tile[TileDeltaEncoder.TILE_X]);
+        assertEquals(0, tile[TileDeltaEncoder.TILE_Y]);
+        assertEquals(16, tile[TileDeltaEncoder.TILE_WIDTH]);
+        assertEquals(16 * 16, tile[TileDeltaEncoder.TILE_SIZE]);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < 16; x++) {
+                assertEquals(source[y * WIDTH + 16 + x], encoded.getBuffer()[tile[TileDeltaEncoder.TILE_OFFSET] + y * 16 + x]);
+            }
+        }
+
+        encoder.requestKeyframe();
+        encoder.encode(transformer, source);
+        assertTrue(encoder.isKeyframe());
+        assertEquals(2, encoder.getTileCount());
+        assertEquals(5.0 / 8, encoder.getSentTileRatio(), 1e-9);
+        assertEquals(2, encoder.getKeyframeCount());
+    }
+}
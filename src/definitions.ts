@@ -1,3 +1,5 @@
+import type { PluginListenerHandle } from '@capacitor/core';
+
 export type CameraInitOptions = {
   flashMode?: boolean;
   cameraFacing?: 'front' | 'rear';
@@ -6,18 +8,110 @@ export type CameraInitOptions = {
   height?: number;
   canvas?: { width: number; height: number };
   capture?: { width: number; height: number };
+  bufferPoolSize?: number;
+  frameQueueSize?: number;
+  dropPolicy?: 'drop-oldest' | 'drop-newest' | 'block';
+  format?: FrameFormat;
+  quality?: number;
+  transport?: 'bridge' | 'stream';
+  streamPort?: number;
+  maxFramesInFlight?: number;
+  mode?: 'push' | 'pull';
+  roi?: RegionOfInterest;
+  analysis?: boolean;
+  outputs?: OutputSpec[];
+  motionGate?: { threshold: number; keepAlive?: number };
+  delta?: { tileSize?: number; threshold?: number; keyframeInterval?: number };
+  parallelism?: number;
+  deliveryQueueSize?: number;
 }
 
-export type Frame = { data: string; width: number; height: number; timestamp: number };
+export type OutputSpec = { width?: number; height?: number; format?: FrameFormat; quality?: number; rateDivisor?: number };
+
+export type RegionOfInterest = { x?: number; y?: number; width?: number; height?: number };
+
+export type FrameRequest = { width?: number; height?: number; format?: FrameFormat; quality?: number };
+
+export type CaptureOptions = { source?: 'preview' | 'still'; quality?: number; exifOrientation?: boolean };
+
+export type CaptureResult = { path: string; uri: string; webPath: string; width: number; height: number; size: number; orientation?: number };
+
+export type StartResult = { streamUrl?: string; webSocketUrl?: string };
+
+export type FrameFormat = 'jpeg' | 'webp' | 'rgba' | 'rgb565' | 'gray';
+export type Frame = {
+  data?: string;
+  format: FrameFormat;
+  width: number;
+  height: number;
+  timestamp: number;
+  sequence: number;
+  output?: number;
+  size: number;
+  luma?: LumaStats;
+  keyframe?: boolean;
+  tiles?: FrameTile[];
+};
+export type FrameTile = { x: number; y: number; width: number; height: number; offset: number; size: number };
+export type LumaStats = { mean: number; sharpness: number; histogram: number[] };
+export type CameraCapabilities = {
+  id: number;
+  facing: 'front' | 'rear';
+  orientation: number;
+  previewSizes: { width: number; height: number }[];
+  fpsRanges: { min: number; max: number }[];
+  focusModes: string[];
+  flashModes: string[];
+};
+export type LatencyStats = { count: number; mean: number; p50: number; p95: number; p99: number; max: number };
+export type FrameStats = {
+  since: number;
+  frames: { received: number; processed: number; dropped: number; delivered: number };
+  bytesOut: number;
+  stages: { transform: LatencyStats; encode: LatencyStats; serialize: LatencyStats; deliver: LatencyStats };
+  latency: LatencyStats;
+  bufferPool?: { size: number; dry: number };
+  startup?: { warm: boolean; open: number; negotiate: number; start: number };
+  transform?: { path: 'direct' | 'box' | 'resample'; sampleFactor: number; cropped: boolean; width: number; height: number };
+  delta?: { keyframes: number; tiles: number; tileRatio: number };
+  motion?: { delivered: number; skipped: number; keepAlive: number; skipRatio: number; difference: number };
+  stream?: { clients: number; dropped: number };
+};
 export type RenderFrameCallback = (frame: Frame) => unknown;
+export type FrameProcessorResult = { processor: string; sequence: number; timestamp: number; result: Record<string, unknown> };
 
 export interface CameraPlugin {
   initialize(options: CameraInitOptions): void;
-  start(): Promise<void>;
+  prewarm(): Promise<void>;
+  start(): Promise<StartResult>;
   stop(): Promise<void>;
+  reconfigure(options: CameraInitOptions): Promise<void>;
+  /**
+   * Crops frames to a region of the displayed frame, in coordinates normalized from 0 to 1. Only the region is converted and encoded. An empty region uses the whole frame again.
+   */
+  setRegionOfInterest(region?: RegionOfInterest): Promise<void>;
   setOrientationChange(option: { value: 'portrait' | 'landscape' }): Promise<void>;
   flip(): Promise<void>;
   getSupportedFlashModes(): Promise<{ result: string[] }>;
+  getCapabilities(): Promise<{ cameras: CameraCapabilities[] }>;
   setFlashMode(option: { value: boolean }): Promise<void>;
+  /**
+   * Sends every tile with the next delta frame.
+   * A delta frame that could not be delivered is followed by a keyframe anyway.
+   * Delta frames are never sent with the stream transport.
+   */
+  requestKeyframe(): Promise<void>;
+  ackFrame(option: { sequence: number }): Promise<void>;
+  getLatestFrame(option?: FrameRequest): Promise<Frame>;
+  /**
+   * Writes a full resolution picture to the app cache and returns where it is, the image is never sent over the bridge. The preview frame is captured unless `source` is `still`, which takes a still at the largest picture size. With `exifOrientation`, preview frames are tagged with their orientation instead of being rotated. Captures older than a day are deleted when the next one is written, copy the ones to keep.
+   */
+  capture(option?: CaptureOptions): Promise<CaptureResult>;
+  getStats(): Promise<FrameStats>;
+  resetStats(): Promise<void>;
   onRenderFrame(cb: RenderFrameCallback): void;
+  /**
+   * Results of the frame processors registered by native code, computed on raw frames before encoding.
+   */
+  addListener(eventName: 'frameProcessed', listenerFunc: (result: FrameProcessorResult) => void): Promise<PluginListenerHandle>;
 }
@@ -1,6 +1,6 @@
 import { WebPlugin } from '@capacitor/core';
 
-import type { CameraInitOptions, CameraPlugin, RenderFrameCallback } from './definitions';
+import type { CameraCapabilities, CameraInitOptions, CaptureOptions, CaptureResult, CameraPlugin, Frame, FrameRequest, FrameStats, RegionOfInterest, RenderFrameCallback, StartResult } from './definitions';
 
 export class CameraWeb extends WebPlugin implements CameraPlugin {
   private options!: Required<CameraInitOptions>;
@@ -9,6 +9,7 @@ export class CameraWeb extends WebPlugin implements CameraPlugin {
   private canvas?: HTMLCanvasElement;
   private stream?: MediaStream;
   private isPreviewing = false;
+  private sequence = 0;
 
   constructor() {
     super();
@@ -17,9 +18,16 @@ export class CameraWeb extends WebPlugin implements CameraPlugin {
 
   public initialize(options: CameraInitOptions): void {
     this.options = { ...this.options, ...options };
+    if (options.roi !== undefined) {
+      this.options.roi = this.toRegion(options.roi);
+    }
+  }
+
+  public async prewarm(): Promise<void> {
+    // getUserMedia opens the camera on start, there is nothing to open ahead of it
   }
 
-  public async start(): Promise<void> {
+  public async start(): Promise<StartResult> {
     this.stream = await navigator.mediaDevices.getUserMedia({
       audio: false,
       video: {
@@ -45,19 +53,26 @@ export class CameraWeb extends WebPlugin implements CameraPlugin {
     this.canvas = document.createElement('canvas');
     this.isPreviewing = true;
     requestAnimationFrame(this.processFrame);
+    return {};
   }
 
   private processFrame = () => {
     if (this.canvas && this.video) {
       const ctx = this.canvas.getContext('2d');
       if (ctx) {
-        const { width, height } = this.video;
+        const { x, y, width: roiWidth, height: roiHeight } = this.options.roi;
+        const width = Math.round(this.video.width * roiWidth);
+        const height = Math.round(this.video.height * roiHeight);
         this.canvas.width = width;
         this.canvas.height = height;
-        ctx.drawImage(this.video, 0, 0, width, height);
-        const dataUri = this.canvas.toDataURL('image/jpeg', 1);
+        const scaleX = this.video.videoWidth || this.video.width;
+        const scaleY = this.video.videoHeight || this.video.height;
+        ctx.drawImage(this.video, x * scaleX, y * scaleY, roiWidth * scaleX, roiHeight * scaleY, 0, 0, width, height);
+        const format = this.options.format === 'webp' ? 'webp' : 'jpeg';
+        const dataUri = this.canvas.toDataURL(`image/${format}`, this.options.quality / 100);
         if (this.render) {
-          this.render({ data: dataUri, width, height, timestamp: Date.now() });
+          const size = Math.floor(((dataUri.length - dataUri.indexOf(',') - 1) * 3) / 4);
+          this.render({ data: dataUri, format, width, height, timestamp: Date.now(), sequence: this.sequence++, size });
         }
       }
 
@@ -75,6 +90,36 @@ export class CameraWeb extends WebPlugin implements CameraPlugin {
     this.stream = undefined;
   }
 
+  public async reconfigure(options: CameraInitOptions): Promise<void> {
+    this.initialize(options);
+    const track = this.stream?.getVideoTracks()[0];
+    if (track) {
+      await track.applyConstraints({
+        width: this.options.width,
+        height: this.options.height,
+        aspectRatio: this.options.width / this.options.height,
+        frameRate: this.options.fps,
+      });
+    }
+  }
+
+  public async setRegionOfInterest(region: RegionOfInterest = {}): Promise<void> {
+    this.options.roi = this.toRegion(region);
+  }
+
+  /**
+   * Defaults a region to the whole frame and clamps it to the unit square, an empty region is the whole frame.
+   */
+  private toRegion(region: RegionOfInterest | null = {}): Required<RegionOfInterest> {
+    const clamp = (value: number | undefined, max: number) =>
+      value !== undefined && Number.isFinite(value) ? Math.min(Math.max(value, 0), max) : 0;
+    const x = clamp(region?.x, 1);
+    const y = clamp(region?.y, 1);
+    const width = clamp(region?.width, 1 - x);
+    const height = clamp(region?.height, 1 - y);
+    return width > 0 && height > 0 ? { x, y, width, height } : { x: 0, y: 0, width: 1, height: 1 };
+  }
+
   public setOrientationChange(): Promise<void> {
     throw new Error('Method not implemented on web!');
   }
@@ -87,10 +132,69 @@ export class CameraWeb extends WebPlugin implements CameraPlugin {
     throw new Error('Method not supported on web!');
   }
 
+  public getCapabilities(): Promise<{ cameras: CameraCapabilities[]; }> {
+    throw new Error('Method not supported on web!');
+  }
+
   public setFlashMode(): Promise<void> {
     throw new Error('Method not supported on web!');
   }
 
+  public async getLatestFrame(option: FrameRequest = {}): Promise<Frame> {
+    if (!this.video) {
+      throw new Error('Camera is not running');
+    }
+    const canvas = document.createElement('canvas');
+    const ctx = canvas.getContext('2d');
+    if (!ctx) {
+      throw new Error('Canvas is not supported');
+    }
+    canvas.width = option.width ?? this.video.width;
+    canvas.height = option.height ?? this.video.height;
+    ctx.drawImage(this.video, 0, 0, canvas.width, canvas.height);
+    const format = option.format === 'webp' ? 'webp' : 'jpeg';
+    const data = canvas.toDataURL(`image/${format}`, (option.quality ?? this.options.quality) / 100);
+    const size = Math.floor(((data.length - data.indexOf(',') - 1) * 3) / 4);
+    return { data, format, width: canvas.width, height: canvas.height, timestamp: Date.now(), sequence: this.sequence++, size };
+  }
+
+  public async capture(option: CaptureOptions = {}): Promise<CaptureResult> {
+    if (!this.video) {
+      throw new Error('Camera is not running');
+    }
+    const canvas = document.createElement('canvas');
+    const ctx = canvas.getContext('2d');
+    if (!ctx) {
+      throw new Error('Canvas is not supported');
+    }
+    canvas.width = this.video.videoWidth || this.video.width;
+    canvas.height = this.video.videoHeight || this.video.height;
+    ctx.drawImage(this.video, 0, 0, canvas.width, canvas.height);
+    const blob = await new Promise<Blob | null>((resolve) => canvas.toBlob(resolve, 'image/jpeg', (option.quality ?? 100) / 100));
+    if (!blob) {
+      throw new Error('Could not capture preview frame');
+    }
+    // there is no file system on web, the picture stays a blob
+    const uri = URL.createObjectURL(blob);
+    return { path: '', uri, webPath: uri, width: canvas.width, height: canvas.height, size: blob.size };
+  }
+
+  public getStats(): Promise<FrameStats> {
+    throw new Error('Method not supported on web!');
+  }
+
+  public resetStats(): Promise<void> {
+    throw new Error('Method not supported on web!');
+  }
+
+  public async requestKeyframe(): Promise<void> {
+    // Web frames are always whole frames
+  }
+
+  public async ackFrame(): Promise<void> {
+    // Frames are rendered on animation frames, there is no queue to bound on web
+  }
+
   public onRenderFrame(cb: RenderFrameCallback): void {
     this.render = cb;
   }
@@ -109,7 +213,23 @@ export class CameraWeb extends WebPlugin implements CameraPlugin {
       capture: {
         width: window.screen.availWidth,
         height: window.screen.availHeight,
-      }
+      },
+      bufferPoolSize: 0,
+      frameQueueSize: 1,
+      dropPolicy: 'drop-oldest',
+      format: 'jpeg',
+      quality: 100,
+      transport: 'bridge',
+      streamPort: 0,
+      maxFramesInFlight: 0,
+      mode: 'push',
+      roi: { x: 0, y: 0, width: 1, height: 1 },
+      analysis: false,
+      outputs: [],
+      motionGate: { threshold: 0, keepAlive: 5 },
+      delta: { tileSize: 0, threshold: 4, keyframeInterval: 30 },
+      parallelism: 1,
+      deliveryQueueSize: 0,
     }
   }
 }